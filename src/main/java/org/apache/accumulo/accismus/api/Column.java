@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 
 import org.apache.accumulo.accismus.impl.ByteUtil;
+import org.apache.accumulo.accismus.impl.VisibilityCache;
 import org.apache.accumulo.core.data.ArrayByteSequence;
 import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.security.ColumnVisibility;
@@ -38,6 +39,8 @@ public class Column implements Writable {
   private ByteSequence family;
   private ByteSequence qualifier;
   private ColumnVisibility visibility = EMPTY_VIS;
+  // computed lazily, reset when the column changes
+  private int hash = 0;
   
   private static byte[] toBytes(String s) {
     try {
@@ -48,7 +51,12 @@ public class Column implements Writable {
   }
 
   public int hashCode() {
-    return family.hashCode() + qualifier.hashCode() + visibility.hashCode();
+    int h = hash;
+    if (h == 0) {
+      h = family.hashCode() + qualifier.hashCode() + visibility.hashCode();
+      hash = h;
+    }
+    return h;
   }
   
   public boolean equals(Object o) {
@@ -88,6 +96,7 @@ public class Column implements Writable {
 
   public Column setVisibility(ColumnVisibility cv) {
     this.visibility = cv;
+    this.hash = 0;
     return this;
   }
   
@@ -116,8 +125,8 @@ public class Column implements Writable {
     byte[] cv = new byte[len];
     in.readFully(cv);
     
-    // TODO use cv cache?
-    visibility = new ColumnVisibility(cv);
+    visibility = VisibilityCache.get(cv);
+    hash = 0;
     
   }
 }
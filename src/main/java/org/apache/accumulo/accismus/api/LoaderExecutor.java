@@ -120,6 +120,8 @@ public class LoaderExecutor {
       }
     }
     
+    config.close();
+
     if (exceptionRef.get() != null)
       throw new RuntimeException(exceptionRef.get());
   }
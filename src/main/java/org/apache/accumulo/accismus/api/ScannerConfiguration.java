@@ -34,6 +34,7 @@ public class ScannerConfiguration implements Cloneable {
   private IteratorSetting[] iters = new IteratorSetting[0];
   // TODO use a set
   private ArrayList<Column> columns = new ArrayList<Column>();
+  private boolean readCommitted = false;
   
   // TODO document that timestamps are ignored
 
@@ -78,6 +79,25 @@ public class ScannerConfiguration implements Cloneable {
   public void clearColumns() {
     columns.clear();
   }
+  
+  /**
+   * When enabled, a scan never waits on locked columns or tries to resolve them. For a locked column the newest value committed before the snapshot's start
+   * time is returned, so the scan may miss a transaction that commits before the start time while the scan is running. This trades snapshot isolation for
+   * predictable throughput, which suits analytics jobs that scan while data is being loaded.
+   * 
+   * <p>
+   * Read committed scans are only for read only snapshots. A write based on a value read this way could silently overwrite the missed transaction, since
+   * that transaction's commit is older than the writer's start time and so is not seen as a write conflict. A transaction that has set or deleted columns
+   * can not do a read committed scan, and one that did a read committed scan can not set or delete columns.
+   */
+  public ScannerConfiguration setReadCommitted(boolean readCommitted) {
+    this.readCommitted = readCommitted;
+    return this;
+  }
+  
+  public boolean isReadCommitted() {
+    return readCommitted;
+  }
 
   public void configure(Scanner scanner) {
     scanner.clearColumns();
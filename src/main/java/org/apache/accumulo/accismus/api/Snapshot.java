@@ -16,6 +16,7 @@
  */
 package org.apache.accumulo.accismus.api;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 
@@ -37,5 +38,12 @@ public interface Snapshot {
 
   public abstract Map<Column,ByteSequence> get(ByteSequence row, Set<Column> columns) throws Exception;
 
+  /**
+   * Reads the same columns from many rows. Implementations may read the rows in parallel, which is much faster than reading rows one at a time.
+   * 
+   * @return a map from row to the columns that exist in that row, rows with none of the columns are not included
+   */
+  public abstract Map<ByteSequence,Map<Column,ByteSequence>> get(Collection<ByteSequence> rows, Set<Column> columns) throws Exception;
+
   public abstract RowIterator get(ScannerConfiguration config) throws Exception;
 }
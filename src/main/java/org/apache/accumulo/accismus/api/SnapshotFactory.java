@@ -20,6 +20,7 @@ import java.util.Properties;
 
 import org.apache.accumulo.accismus.api.config.AccismusProperties;
 import org.apache.accumulo.accismus.impl.Configuration;
+import org.apache.accumulo.accismus.impl.OracleClient;
 import org.apache.accumulo.accismus.impl.TransactionImpl;
 
 /**
@@ -46,8 +47,15 @@ public class SnapshotFactory {
     }
   }
 
+  /**
+   * Creates a read only snapshot. If {@link AccismusProperties#SNAPSHOT_MAX_STALENESS_PROP} is set, the snapshot may share its start timestamp with other
+   * snapshots created recently in this JVM.
+   */
   public Snapshot createSnapshot(){
     try {
+      long maxStaleness = config.getLongProperty(AccismusProperties.SNAPSHOT_MAX_STALENESS_PROP);
+      if (maxStaleness > 0)
+        return new TransactionImpl(config, OracleClient.getInstance(config).getSharedTimestamp(maxStaleness));
       return new TransactionImpl(config);
     } catch (Exception e) {
       throw new RuntimeException(e);
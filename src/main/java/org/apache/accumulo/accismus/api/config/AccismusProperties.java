@@ -36,7 +36,33 @@ public class AccismusProperties extends Properties {
   public static final String ZOOKEEPER_ROOT_PROP = "accismus.zookeeper.root";
   public static final String ZOOKEEPER_TIMEOUT_PROP = "accismus.zookeeper.timeout";
   public static final String ZOOKEEPER_CONNECT_PROP = "accismus.zookeeper.connect";
+  public static final String ORACLE_CLIENT_CONNECTIONS_PROP = "accismus.client.oracle.connections";
+  public static final String ORACLE_CLIENT_MAX_IN_FLIGHT_PROP = "accismus.client.oracle.maxInFlight";
+  public static final String ORACLE_PORT_PROP = "accismus.oracle.port";
+  public static final String ORACLE_ZOOKEEPER_TIMEOUT_PROP = "accismus.oracle.zookeeper.timeout";
+  public static final String CONDITIONAL_WRITER_THREADS_PROP = "accismus.client.conditionalWriter.threads";
+  public static final String CONDITIONAL_WRITER_TIMEOUT_PROP = "accismus.client.conditionalWriter.timeout";
+  public static final String BATCH_WRITER_MEMORY_PROP = "accismus.client.batchWriter.memory";
+  public static final String BATCH_WRITER_LATENCY_PROP = "accismus.client.batchWriter.latency";
+  public static final String BATCH_WRITER_THREADS_PROP = "accismus.client.batchWriter.threads";
+  public static final String BATCH_SCANNER_THREADS_PROP = "accismus.client.batchScanner.threads";
+  public static final String COMMIT_PARALLEL_PREWRITE_PROP = "accismus.client.commit.parallelPrewrite";
+  public static final String COMMIT_ASYNC_PROP = "accismus.client.commit.async";
+  public static final String COMMIT_ASYNC_THREADS_PROP = "accismus.client.commit.async.threads";
+  public static final String COMMIT_ASYNC_QUEUE_SIZE_PROP = "accismus.client.commit.async.queueSize";
+  public static final String ROLLBACK_ASYNC_PROP = "accismus.client.rollback.async";
+  public static final String GROUP_COMMIT_LINGER_PROP = "accismus.client.commit.groupLinger";
+  public static final String SCANNER_LOCK_THREADS_PROP = "accismus.client.scanner.lockResolver.threads";
+  public static final String SCANNER_READ_AHEAD_PROP = "accismus.client.scanner.readAhead";
+  public static final String TRANSACTOR_ENABLED_PROP = "accismus.client.transactor.enabled";
+  public static final String TRANSACTOR_ZOOKEEPER_TIMEOUT_PROP = "accismus.client.transactor.zookeeper.timeout";
+  public static final String TRANSACTOR_ROLLBACK_TIME_PROP = "accismus.client.transactor.rollbackTime";
+  public static final String LOCK_FORMAT_PROP = "accismus.client.lock.format";
+  public static final String SNAPSHOT_MAX_STALENESS_PROP = "accismus.snapshot.sharedTimestamp.maxStaleness";
   
+  public static final String LOCK_FORMAT_OLD = "old";
+  public static final String LOCK_FORMAT_NEW = "new";
+
   public AccismusProperties() {
     super(org.apache.accumulo.accismus.impl.Configuration.getDefaultProperties());
   }
@@ -84,6 +110,223 @@ public class AccismusProperties extends Properties {
     return this;
   }
 
+  /**
+   * Sets the number of connections the oracle client keeps open to the oracle.
+   */
+  public AccismusProperties setOracleConnections(int num) {
+    if (num <= 0)
+      throw new IllegalArgumentException("Must be positive " + num);
+    setProperty(ORACLE_CLIENT_CONNECTIONS_PROP, num + "");
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of timestamp batches the oracle client will have outstanding at once. Batches beyond the number of connections wait for a free
+   * connection.
+   */
+  public AccismusProperties setOracleMaxInFlight(int num) {
+    if (num <= 0)
+      throw new IllegalArgumentException("Must be positive " + num);
+    setProperty(ORACLE_CLIENT_MAX_IN_FLIGHT_PROP, num + "");
+    return this;
+  }
+
+  /**
+   * Sets the port an oracle server listens on. Standby oracles on the same host need different ports.
+   */
+  public AccismusProperties setOraclePort(int port) {
+    if (port <= 0)
+      throw new IllegalArgumentException("Must be positive " + port);
+    setProperty(ORACLE_PORT_PROP, port + "");
+    return this;
+  }
+
+  /**
+   * Sets the zookeeper session timeout used by oracle servers. A standby oracle takes over when the leader's session expires, so this bounds how long
+   * timestamps are unavailable when the leader dies.
+   */
+  public AccismusProperties setOracleZookeeperTimeout(int timeout) {
+    if (timeout <= 0)
+      throw new IllegalArgumentException("Must be positive " + timeout);
+    setProperty(ORACLE_ZOOKEEPER_TIMEOUT_PROP, timeout + "");
+    return this;
+  }
+
+  /**
+   * Sets the number of threads the shared conditional writer uses to write to tablet servers.
+   */
+  public AccismusProperties setConditionalWriterThreads(int num) {
+    if (num <= 0)
+      throw new IllegalArgumentException("Must be positive " + num);
+    setProperty(CONDITIONAL_WRITER_THREADS_PROP, num + "");
+    return this;
+  }
+
+  /**
+   * Sets how long in milliseconds the shared conditional writer will retry a mutation before giving up. Zero, the default, retries forever.
+   */
+  public AccismusProperties setConditionalWriterTimeout(long millis) {
+    if (millis < 0)
+      throw new IllegalArgumentException("Must be non-negative " + millis);
+    setProperty(CONDITIONAL_WRITER_TIMEOUT_PROP, millis + "");
+    return this;
+  }
+
+  /**
+   * Configures the batch writer shared by secondary commits, rollbacks and lock resolution.
+   * 
+   * @param memory
+   *          bytes of mutations to buffer
+   * @param latency
+   *          max milliseconds a mutation will be buffered before it is written
+   * @param threads
+   *          threads used to write to tablet servers
+   */
+  public AccismusProperties setBatchWriterConfig(long memory, long latency, int threads) {
+    if (memory <= 0 || latency <= 0 || threads <= 0)
+      throw new IllegalArgumentException("Must be positive " + memory + " " + latency + " " + threads);
+    setProperty(BATCH_WRITER_MEMORY_PROP, memory + "");
+    setProperty(BATCH_WRITER_LATENCY_PROP, latency + "");
+    setProperty(BATCH_WRITER_THREADS_PROP, threads + "");
+    return this;
+  }
+
+  /**
+   * Sets the number of threads a batch scanner uses when reading many rows at once.
+   */
+  public AccismusProperties setBatchScannerThreads(int num) {
+    if (num <= 0)
+      throw new IllegalArgumentException("Must be positive " + num);
+    setProperty(BATCH_SCANNER_THREADS_PROP, num + "");
+    return this;
+  }
+
+  /**
+   * Configures how scanners handle locked columns. A scanner that finds a locked column keeps reading past it, so that the locks of finished transactions it
+   * finds can be resolved together and their columns read again with one batch scan. Locks of running transactions are waited on in the scanning thread.
+   * 
+   * @param threads
+   *          threads each scanner's batch scan uses to read columns again
+   * @param readAhead
+   *          entries a scanner may buffer past a locked column
+   */
+  public AccismusProperties setScannerLockResolution(int threads, int readAhead) {
+    if (threads <= 0 || readAhead <= 0)
+      throw new IllegalArgumentException("Must be positive " + threads + " " + readAhead);
+    setProperty(SCANNER_LOCK_THREADS_PROP, threads + "");
+    setProperty(SCANNER_READ_AHEAD_PROP, readAhead + "");
+    return this;
+  }
+
+  /**
+   * When enabled, this process registers itself in zookeeper and records the registration in every lock it writes, which requires the new lock format. Readers that find a lock whose owner is
+   * gone roll it back right away, and readers wait much longer before aborting locks of owners that are still registered, see
+   * {@link #setTransactorRollbackTime(long)}.
+   */
+  public AccismusProperties setTransactorLiveness(boolean enabled) {
+    setProperty(TRANSACTOR_ENABLED_PROP, enabled + "");
+    return this;
+  }
+
+  /**
+   * Sets the zookeeper session timeout used to register this process, which is how long after a crash its locks are seen as abandoned.
+   */
+  public AccismusProperties setTransactorZookeeperTimeout(int timeout) {
+    if (timeout <= 0)
+      throw new IllegalArgumentException("Must be positive " + timeout);
+    setProperty(TRANSACTOR_ZOOKEEPER_TIMEOUT_PROP, timeout + "");
+    return this;
+  }
+
+  /**
+   * Sets how long a reader waits on a lock whose owner is still registered before aborting its transaction. A transaction can fail without its process
+   * exiting, so the locks of live owners are aborted too, only much later than locks whose owner is unknown.
+   */
+  public AccismusProperties setTransactorRollbackTime(long time) {
+    if (time <= 0)
+      throw new IllegalArgumentException("Must be positive " + time);
+    setProperty(TRANSACTOR_ROLLBACK_TIME_PROP, time + "");
+    return this;
+  }
+
+  /**
+   * Sets the format locks are written in, either {@link #LOCK_FORMAT_OLD} or {@link #LOCK_FORMAT_NEW}. Both formats are always read, but clients from before
+   * the new format can only read the old one, so the old format is the default. Switch to the new format, which leaves out fields locks share with their
+   * primary and can record the transactor, once every client has been upgraded. Transactor liveness requires the new format.
+   */
+  public AccismusProperties setLockFormat(String format) {
+    if (!format.equals(LOCK_FORMAT_OLD) && !format.equals(LOCK_FORMAT_NEW))
+      throw new IllegalArgumentException("Unknown lock format " + format);
+    setProperty(LOCK_FORMAT_PROP, format);
+    return this;
+  }
+
+  /**
+   * When enabled, a commit locks the primary column and all other rows in one batch instead of locking the primary first. This saves a round trip for
+   * transactions that write many rows, at the cost of some extra work to remove locks when the primary can not be locked.
+   */
+  public AccismusProperties setParallelPrewrite(boolean parallel) {
+    setProperty(COMMIT_PARALLEL_PREWRITE_PROP, parallel + "");
+    return this;
+  }
+
+  /**
+   * When enabled, commit returns once the primary column is committed and the other columns are committed by background threads. Readers roll forward any
+   * columns the background threads have not committed yet, including after a crash.
+   */
+  public AccismusProperties setAsyncCommit(boolean async) {
+    setProperty(COMMIT_ASYNC_PROP, async + "");
+    return this;
+  }
+
+  /**
+   * When enabled, a failed commit only rolls back its primary column before throwing and the other columns are rolled back by background threads. Readers
+   * roll back any locks the background threads have not removed yet.
+   */
+  public AccismusProperties setAsyncRollback(boolean async) {
+    setProperty(ROLLBACK_ASYNC_PROP, async + "");
+    return this;
+  }
+
+  /**
+   * Configures the background threads used when async commit or rollback is enabled.
+   * 
+   * @param threads
+   *          threads committing secondary columns
+   * @param queueSize
+   *          commits that may wait for a thread, when the queue is full commit finishes in the calling thread
+   */
+  public AccismusProperties setAsyncCommitConfig(int threads, int queueSize) {
+    if (threads <= 0 || queueSize <= 0)
+      throw new IllegalArgumentException("Must be positive " + threads + " " + queueSize);
+    setProperty(COMMIT_ASYNC_THREADS_PROP, threads + "");
+    setProperty(COMMIT_ASYNC_QUEUE_SIZE_PROP, queueSize + "");
+    return this;
+  }
+
+  /**
+   * Sets how many milliseconds a conditional mutation waits for mutations from other transactions to join its batch. Batching many transactions' mutations
+   * into one write reduces the number of requests tablet servers handle, at the cost of up to this much latency on each commit step. Zero, the default,
+   * disables group commit.
+   */
+  public AccismusProperties setGroupCommitLinger(long millis) {
+    if (millis < 0)
+      throw new IllegalArgumentException("Must be non-negative " + millis);
+    setProperty(GROUP_COMMIT_LINGER_PROP, millis + "");
+    return this;
+  }
+
+  /**
+   * Lets read only snapshots in one JVM share a start timestamp that is at most this many milliseconds old, instead of each getting a fresh timestamp from the
+   * oracle. Zero, the default, disables sharing.
+   */
+  public AccismusProperties setSnapshotMaxStaleness(long millis) {
+    if (millis < 0)
+      throw new IllegalArgumentException("Must be non-negative " + millis);
+    setProperty(SNAPSHOT_MAX_STALENESS_PROP, millis + "");
+    return this;
+  }
+
   protected void setDefault(String key, String val) {
     if (getProperty(key) == null)
       setProperty(key, val);
@@ -51,6 +51,7 @@ public class AccismusInputFormat extends InputFormat<ByteSequence,ColumnIterator
   private static String TIMESTAMP_CONF_KEY = AccismusInputFormat.class.getName() + ".timestamp";
   private static String PROPS_CONF_KEY = AccismusInputFormat.class.getName() + ".props";
   private static String FAMS_CONF_KEY = AccismusInputFormat.class.getName() + ".families";
+  private static String READ_COMMITTED_CONF_KEY = AccismusInputFormat.class.getName() + ".readCommitted";
 
 
   @Override
@@ -101,6 +102,8 @@ public class AccismusInputFormat extends InputFormat<ByteSequence,ColumnIterator
           
           for (String fam : context.getConfiguration().getStrings(FAMS_CONF_KEY, new String[0]))
             sc.fetchColumnFamily(new ArrayByteSequence(fam));
+          
+          sc.setReadCommitted(context.getConfiguration().getBoolean(READ_COMMITTED_CONF_KEY, false));
 
           rowIter = ti.get(sc);
         } catch (Exception e) {
@@ -138,7 +141,7 @@ public class AccismusInputFormat extends InputFormat<ByteSequence,ColumnIterator
       Configuration accisConf = new Configuration(props);
       
       OracleClient client = OracleClient.getInstance(accisConf);
-      long ts = client.getTimestamp();
+      long ts = client.getSharedTimestamp(accisConf.getLongProperty(AccismusProperties.SNAPSHOT_MAX_STALENESS_PROP));
       
       conf.getConfiguration().setLong(TIMESTAMP_CONF_KEY, ts);
       
@@ -171,6 +174,14 @@ public class AccismusInputFormat extends InputFormat<ByteSequence,ColumnIterator
     fetchFamilies(job, sfams);
   }
 
+  /**
+   * Read the newest committed values instead of waiting on locked columns, see {@link ScannerConfiguration#setReadCommitted(boolean)}. Jobs that run while
+   * data is being loaded will not be slowed down by locks, but may not see a consistent snapshot.
+   */
+  public static void setReadCommitted(Job job, boolean readCommitted) {
+    job.getConfiguration().setBoolean(READ_COMMITTED_CONF_KEY, readCommitted);
+  }
+
   // TODO let user set auths
   // TODO let user set ranges
   
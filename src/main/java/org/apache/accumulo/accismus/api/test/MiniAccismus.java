@@ -77,6 +77,7 @@ public class MiniAccismus {
 
         }
       }
+      aconfig.close();
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
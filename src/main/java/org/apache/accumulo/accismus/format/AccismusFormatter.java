@@ -69,7 +69,7 @@ public class AccismusFormatter implements Formatter {
       val = new DelLockValue(entry.getValue().get()).toString();
     } else if (type.equals("LOCK")) {
       // TODO can Value be made to extend bytesequence w/o breaking API?
-      val = new LockValue(entry.getValue().get()).toString();
+      val = new LockValue(key, entry.getValue().get()).toString();
     } else {
       val = entry.getValue().toString();
     }
@@ -16,13 +16,8 @@
  */
 package org.apache.accumulo.accismus.impl;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
-import java.io.DataInputStream;
 import java.io.DataOutput;
-import java.io.DataOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -37,55 +32,146 @@ import org.apache.hadoop.io.WritableUtils;
  */
 public class ByteUtil {
 
+  /**
+   * Encodes each sequence prefixed by its length as a vint, into an array of exactly the needed size.
+   */
   public static byte[] concat(ByteSequence... byteArrays) {
+    int size = 0;
+    for (ByteSequence bs : byteArrays)
+      size += encodedLength(bs);
     
-    try {
-      // TODO calculate exact array size needed
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      DataOutputStream dos = new DataOutputStream(baos);
-      
-      for (ByteSequence bs : byteArrays) {
-        WritableUtils.writeVInt(dos, bs.length());
-        if (bs.isBackedByArray()) {
-          dos.write(bs.getBackingArray(), bs.offset(), bs.length());
-        } else {
-          // TODO avoid array conversion
-          dos.write(bs.toArray());
-        }
-      }
-      
-      dos.close();
-      return baos.toByteArray();
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+    byte[] ret = new byte[size];
+    int offset = 0;
+    
+    for (ByteSequence bs : byteArrays)
+      offset = write(ret, offset, bs);
+    
+    return ret;
+  }
+  
+  /**
+   * @return the number of bytes {@link #write(byte[], int, ByteSequence)} will write for the sequence
+   */
+  static int encodedLength(ByteSequence bs) {
+    return WritableUtils.getVIntSize(bs.length()) + bs.length();
+  }
+  
+  /**
+   * Writes the sequence prefixed by its length as a vint.
+   * 
+   * @return the offset after the sequence
+   */
+  static int write(byte[] dest, int offset, ByteSequence bs) {
+    offset = writeVInt(dest, offset, bs.length());
+    if (bs.isBackedByArray()) {
+      System.arraycopy(bs.getBackingArray(), bs.offset(), dest, offset, bs.length());
+    } else {
+      for (int i = 0; i < bs.length(); i++)
+        dest[offset + i] = bs.byteAt(i);
     }
+    return offset + bs.length();
   }
   
-  public static List<ByteSequence> split(ByteSequence bs) {
-    ByteArrayInputStream bais;
-    if (bs.isBackedByArray())
-      bais = new ByteArrayInputStream(bs.getBackingArray(), bs.offset(), bs.length());
-    else
-      bais = new ByteArrayInputStream(bs.toArray());
+  /**
+   * Writes a vint using the same encoding as {@link WritableUtils#writeVInt(DataOutput, int)}.
+   * 
+   * @return the offset after the vint
+   */
+  static int writeVInt(byte[] dest, int offset, int i) {
+    if (i >= -112 && i <= 127) {
+      dest[offset++] = (byte) i;
+      return offset;
+    }
+    
+    int len = -112;
+    long v = i;
+    if (v < 0) {
+      v ^= -1L;
+      len = -120;
+    }
+    
+    long tmp = v;
+    while (tmp != 0) {
+      tmp = tmp >> 8;
+      len--;
+    }
     
-    DataInputStream dis = new DataInputStream(bais);
+    dest[offset++] = (byte) len;
+    
+    len = (len < -120) ? -(len + 120) : -(len + 112);
+    
+    for (int idx = len; idx != 0; idx--) {
+      int shiftbits = (idx - 1) * 8;
+      dest[offset++] = (byte) ((v >> shiftbits) & 0xff);
+    }
+    
+    return offset;
+  }
+  
+  /**
+   * Reads a vint written by {@link #writeVInt(byte[], int, int)}. Its size in bytes is given by {@link WritableUtils#decodeVIntSize(byte)}.
+   * 
+   * @param end
+   *          the offset just past the last byte that may be read
+   * @throws IllegalArgumentException
+   *           if the vint does not fit before end
+   */
+  static int readVInt(byte[] src, int offset, int end) {
+    if (offset >= end)
+      throw new IllegalArgumentException("truncated vint at " + offset);
+    byte first = src[offset];
+    int len = WritableUtils.decodeVIntSize(first);
+    if (len > end - offset)
+      throw new IllegalArgumentException("truncated vint at " + offset);
+    if (len == 1)
+      return first;
+    
+    long i = 0;
+    for (int idx = 1; idx < len; idx++)
+      i = (i << 8) | (src[offset + idx] & 0xff);
+    
+    return (int) (WritableUtils.isNegativeVInt(first) ? (i ^ -1L) : i);
+  }
+  
+  /**
+   * @return the backing array when it holds exactly the sequence, otherwise a copy. Callers must not modify the returned array.
+   */
+  public static byte[] toArray(ByteSequence bs) {
+    if (bs.isBackedByArray() && bs.offset() == 0 && bs.length() == bs.getBackingArray().length)
+      return bs.getBackingArray();
+    return bs.toArray();
+  }
+  
+  /**
+   * Splits a sequence encoded by {@link #concat(ByteSequence...)}. The returned fields are views of the sequence's backing array, which must not be modified
+   * while they are in use.
+   * 
+   * @throws IllegalArgumentException
+   *           if the sequence is truncated or a field length is invalid
+   */
+  public static List<ByteSequence> split(ByteSequence bs) {
+    byte[] data;
+    int offset;
+    int end;
+    if (bs.isBackedByArray()) {
+      data = bs.getBackingArray();
+      offset = bs.offset();
+    } else {
+      data = bs.toArray();
+      offset = 0;
+    }
+    end = offset + bs.length();
     
     ArrayList<ByteSequence> ret = new ArrayList<ByteSequence>();
     
-    try {
-      while (true) {
-        int len = WritableUtils.readVInt(dis);
-        
-        // TODO could get pointers into original byte seq
-        byte field[] = new byte[len];
-        
-        dis.readFully(field);
-        ret.add(new ArrayByteSequence(field));
-      }
-    } catch (EOFException ee) {
+    while (offset < end) {
+      int len = readVInt(data, offset, end);
+      offset += WritableUtils.decodeVIntSize(data[offset]);
+      if (len < 0 || len > end - offset)
+        throw new IllegalArgumentException("bad field length " + len);
       
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+      ret.add(new ArrayByteSequence(data, offset, len));
+      offset += len;
     }
     
     return ret;
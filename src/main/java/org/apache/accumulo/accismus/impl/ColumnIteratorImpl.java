@@ -59,8 +59,7 @@ public class ColumnIteratorImpl implements ColumnIterator {
     }
     byte[] cf = entry.getKey().getColumnFamilyData().toArray();
     byte[] cq = entry.getKey().getColumnQualifierData().toArray();
-    // TODO cache colvis, pass cache in
-    ColumnVisibility cv = entry.getKey().getColumnVisibilityParsed();
+    ColumnVisibility cv = VisibilityCache.get(entry.getKey().getColumnVisibilityData());
     
     final Column col = new Column(cf, cq).setVisibility(cv);
     final ByteSequence val = new ArrayByteSequence(entry.getValue().get());
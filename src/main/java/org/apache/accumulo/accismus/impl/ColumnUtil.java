@@ -48,24 +48,35 @@ public class ColumnUtil {
   public static final long TIMESTAMP_MASK = 0x1fffffffffffffffl;
 
 
+  private static final byte[] NOTIFY_CF = Constants.NOTIFY_CF.toArray();
+
   public static byte[] concatCFCQ(Column c) {
     return ByteUtil.concat(c.getFamily(), c.getQualifier());
   }
 
+  /**
+   * Adds a column to a mutation without copying the family and qualifier when their backing arrays can be used as is.
+   */
+  public static void put(Mutation m, Column col, long ts, byte[] val) {
+    m.put(ByteUtil.toArray(col.getFamily()), ByteUtil.toArray(col.getQualifier()), col.getVisibility(), ts, val);
+  }
+
   public static void commitColumn(boolean isTrigger, boolean isPrimary, Column col, boolean isWrite, long startTs, long commitTs, Set<Column> observedColumns,
       Mutation m) {
+    byte[] cf = ByteUtil.toArray(col.getFamily());
+    byte[] cq = ByteUtil.toArray(col.getQualifier());
+
     if (isWrite) {
-      m.put(col.getFamily().toArray(), col.getQualifier().toArray(), col.getVisibility(), WRITE_PREFIX | commitTs, WriteValue.encode(startTs, isPrimary, false));
+      m.put(cf, cq, col.getVisibility(), WRITE_PREFIX | commitTs, WriteValue.encode(startTs, isPrimary, false));
     } else {
-      m.put(col.getFamily().toArray(), col.getQualifier().toArray(), col.getVisibility(), DEL_LOCK_PREFIX | commitTs,
-          DelLockValue.encode(startTs, isPrimary, false));
+      m.put(cf, cq, col.getVisibility(), DEL_LOCK_PREFIX | commitTs, DelLockValue.encode(startTs, isPrimary, false));
     }
     
     if (isTrigger) {
-      m.put(col.getFamily().toArray(), col.getQualifier().toArray(), col.getVisibility(), ACK_PREFIX | startTs, TransactionImpl.EMPTY);
-      m.putDelete(Constants.NOTIFY_CF.toArray(), ColumnUtil.concatCFCQ(col), col.getVisibility(), startTs);
+      m.put(cf, cq, col.getVisibility(), ACK_PREFIX | startTs, TransactionImpl.EMPTY);
+      m.putDelete(NOTIFY_CF, ColumnUtil.concatCFCQ(col), col.getVisibility(), startTs);
     } else if (observedColumns.contains(col)) {
-      m.put(Constants.NOTIFY_CF.toArray(), ColumnUtil.concatCFCQ(col), col.getVisibility(), commitTs, TransactionImpl.EMPTY);
+      m.put(NOTIFY_CF, ColumnUtil.concatCFCQ(col), col.getVisibility(), commitTs, TransactionImpl.EMPTY);
     }
   }
   
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.accismus.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Commit statistics for all transactions using a {@link Configuration}.
+ */
+public class CommitStats {
+  private Histogram commitTimes = new Histogram();
+  private Histogram prewriteTimes = new Histogram();
+  private Histogram commitTsTimes = new Histogram();
+  private Histogram groupCommitSizes = new Histogram();
+  private AtomicLong committed = new AtomicLong(0);
+  private AtomicLong failed = new AtomicLong(0);
+
+  void committed(long micros) {
+    committed.incrementAndGet();
+    commitTimes.add(micros);
+  }
+
+  void prewritten(long prewriteMicros, long commitTsMicros) {
+    prewriteTimes.add(prewriteMicros);
+    commitTsTimes.add(commitTsMicros);
+  }
+
+  void failed() {
+    failed.incrementAndGet();
+  }
+
+  /**
+   * @return the time in microseconds taken by successful commits
+   */
+  public Histogram getCommitTimes() {
+    return commitTimes;
+  }
+
+  /**
+   * @return the time in microseconds taken to lock all columns, for commits where locking succeeded
+   */
+  public Histogram getPrewriteTimes() {
+    return prewriteTimes;
+  }
+
+  /**
+   * @return the time in microseconds spent getting a commit timestamp after locking
+   */
+  public Histogram getCommitTsTimes() {
+    return commitTsTimes;
+  }
+
+  /**
+   * @return the number of conditional mutations in each batch written when group commit is enabled
+   */
+  public Histogram getGroupCommitSizes() {
+    return groupCommitSizes;
+  }
+
+  public long getCommitted() {
+    return committed.get();
+  }
+
+  public long getFailed() {
+    return failed.get();
+  }
+
+  public String toString() {
+    return String.format("committed:%,d failed:%,d commit time us: %s prewrite time us: %s commit ts time us: %s", getCommitted(), getFailed(), commitTimes,
+        prewriteTimes, commitTsTimes);
+  }
+}
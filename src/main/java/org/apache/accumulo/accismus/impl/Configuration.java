@@ -26,12 +26,19 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.accumulo.accismus.api.Column;
 import org.apache.accumulo.accismus.api.config.AccismusProperties;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.BatchWriterConfig;
 import org.apache.accumulo.core.client.ConditionalWriter;
 import org.apache.accumulo.core.client.ConditionalWriterConfig;
 import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.MutationsRejectedException;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.client.ZooKeeperInstance;
 import org.apache.accumulo.core.client.security.tokens.PasswordToken;
@@ -55,6 +62,19 @@ public class Configuration {
   private String accumuloInstanceID;
   private String accismusInstanceID;
   private Properties workerProps;
+  private Properties props;
+  
+  // created lazily and shared by all transactions, not copied by the copy constructor so that subclasses create their own
+  private ConditionalWriter sharedConditionalWriter;
+  private BatchWriter sharedBatchWriter;
+  private ThreadPoolExecutor asyncCommitExecutor;
+  private Transactor transactor;
+  // set when close starts, no executors are created after this. Background commits may still use the writers until they are closed.
+  private boolean closed = false;
+  private boolean writersClosed = false;
+  private CommitStats commitStats = new CommitStats();
+  private TxStatusCache txStatusCache = new TxStatusCache();
+  private ScanStats scanStats = new ScanStats();
   
   public Configuration(Configuration config) throws Exception {
     this.table = config.table;
@@ -65,6 +85,7 @@ public class Configuration {
     this.accumuloInstanceID = config.accumuloInstanceID;
     this.observers = config.observers;
     this.conn = config.conn;
+    this.props = new Properties(config.props);
   }
 
   public Configuration(ZooKeeper zk, String zoodir, Connector conn) throws Exception {
@@ -72,6 +93,7 @@ public class Configuration {
     readConfig(zk);
     
     this.conn = conn;
+    this.props = getDefaultProperties();
 
     if (!conn.getInstance().getInstanceName().equals(accumuloInstance)) {
       throw new IllegalArgumentException("unexpected accumulo instance name " + conn.getInstance().getInstanceName() + " != " + accumuloInstance);
@@ -91,6 +113,10 @@ public class Configuration {
         .getProperty(AccismusProperties.ZOOKEEPER_ROOT_PROP), new ZooKeeperInstance(props.getProperty(AccismusProperties.ACCUMULO_INSTANCE_PROP),
         props.getProperty(AccismusProperties.ZOOKEEPER_CONNECT_PROP)).getConnector(props.getProperty(AccismusProperties.ACCUMULO_USER_PROP),
         new PasswordToken(props.getProperty(AccismusProperties.ACCUMULO_PASSWORD_PROP))));
+    
+    this.props = new Properties(getDefaultProperties());
+    for (String key : props.stringPropertyNames())
+      this.props.setProperty(key, props.getProperty(key));
   }
   
   private static Properties load(File propFile) throws FileNotFoundException, IOException {
@@ -111,6 +137,29 @@ public class Configuration {
     props.put(AccismusProperties.ACCUMULO_INSTANCE_PROP, "accumulo1");
     props.put(AccismusProperties.ACCUMULO_USER_PROP, "accismus");
     props.put(AccismusProperties.ACCUMULO_PASSWORD_PROP, "secret");
+    props.put(AccismusProperties.ORACLE_CLIENT_CONNECTIONS_PROP, "2");
+    props.put(AccismusProperties.ORACLE_CLIENT_MAX_IN_FLIGHT_PROP, "4");
+    props.put(AccismusProperties.SNAPSHOT_MAX_STALENESS_PROP, "0");
+    props.put(AccismusProperties.ORACLE_PORT_PROP, "9913");
+    props.put(AccismusProperties.ORACLE_ZOOKEEPER_TIMEOUT_PROP, "5000");
+    props.put(AccismusProperties.CONDITIONAL_WRITER_THREADS_PROP, "3");
+    props.put(AccismusProperties.CONDITIONAL_WRITER_TIMEOUT_PROP, "0");
+    props.put(AccismusProperties.BATCH_WRITER_MEMORY_PROP, "10485760");
+    props.put(AccismusProperties.BATCH_WRITER_LATENCY_PROP, "1000");
+    props.put(AccismusProperties.BATCH_WRITER_THREADS_PROP, "3");
+    props.put(AccismusProperties.BATCH_SCANNER_THREADS_PROP, "10");
+    props.put(AccismusProperties.COMMIT_PARALLEL_PREWRITE_PROP, "false");
+    props.put(AccismusProperties.COMMIT_ASYNC_PROP, "false");
+    props.put(AccismusProperties.COMMIT_ASYNC_THREADS_PROP, "2");
+    props.put(AccismusProperties.COMMIT_ASYNC_QUEUE_SIZE_PROP, "1000");
+    props.put(AccismusProperties.ROLLBACK_ASYNC_PROP, "false");
+    props.put(AccismusProperties.GROUP_COMMIT_LINGER_PROP, "0");
+    props.put(AccismusProperties.SCANNER_LOCK_THREADS_PROP, "4");
+    props.put(AccismusProperties.SCANNER_READ_AHEAD_PROP, "1000");
+    props.put(AccismusProperties.TRANSACTOR_ENABLED_PROP, "false");
+    props.put(AccismusProperties.TRANSACTOR_ZOOKEEPER_TIMEOUT_PROP, "5000");
+    props.put(AccismusProperties.TRANSACTOR_ROLLBACK_TIME_PROP, "600000");
+    props.put(AccismusProperties.LOCK_FORMAT_PROP, AccismusProperties.LOCK_FORMAT_OLD);
     
     return props;
   }
@@ -187,7 +236,150 @@ public class Configuration {
   }
   
   public ConditionalWriter createConditionalWriter() throws TableNotFoundException {
-    return conn.createConditionalWriter(table, new ConditionalWriterConfig().setAuthorizations(auths));
+    ConditionalWriterConfig cwConfig = new ConditionalWriterConfig().setAuthorizations(auths).setMaxWriteThreads(
+        getIntProperty(AccismusProperties.CONDITIONAL_WRITER_THREADS_PROP));
+    long timeout = getLongProperty(AccismusProperties.CONDITIONAL_WRITER_TIMEOUT_PROP);
+    if (timeout > 0)
+      cwConfig.setTimeout(timeout, TimeUnit.MILLISECONDS);
+    return conn.createConditionalWriter(table, cwConfig);
+  }
+  
+  /**
+   * @return a conditional writer shared by all commits and lock resolution using this configuration, callers should not close it
+   */
+  public synchronized ConditionalWriter getSharedConditionalWriter() throws TableNotFoundException {
+    if (writersClosed)
+      throw new IllegalStateException("configuration is closed");
+    if (sharedConditionalWriter == null) {
+      long linger = getLongProperty(AccismusProperties.GROUP_COMMIT_LINGER_PROP);
+      if (linger > 0)
+        sharedConditionalWriter = new GroupCommitWriter(createConditionalWriter(), linger, getIntProperty(AccismusProperties.CONDITIONAL_WRITER_THREADS_PROP),
+            commitStats.getGroupCommitSizes());
+      else
+        sharedConditionalWriter = createConditionalWriter();
+    }
+    return sharedConditionalWriter;
+  }
+  
+  /**
+   * Returns a batch writer shared by all transactions and scanners using this configuration, callers should not close it. Mutations from many threads are
+   * buffered together, so callers must flush when a later step depends on their mutations being written.
+   */
+  public synchronized BatchWriter getSharedBatchWriter() throws TableNotFoundException {
+    if (writersClosed)
+      throw new IllegalStateException("configuration is closed");
+    if (sharedBatchWriter == null) {
+      BatchWriterConfig bwConfig = new BatchWriterConfig().setMaxMemory(getLongProperty(AccismusProperties.BATCH_WRITER_MEMORY_PROP))
+          .setMaxLatency(getLongProperty(AccismusProperties.BATCH_WRITER_LATENCY_PROP), TimeUnit.MILLISECONDS)
+          .setMaxWriteThreads(getIntProperty(AccismusProperties.BATCH_WRITER_THREADS_PROP));
+      sharedBatchWriter = conn.createBatchWriter(table, bwConfig);
+    }
+    return sharedBatchWriter;
+  }
+  
+  /**
+   * Returns an executor for finishing commits and rollbacks in the background. When its queue is full, tasks run in the submitting thread, which slows down
+   * committers that get ahead of the background threads.
+   */
+  public synchronized ThreadPoolExecutor getAsyncCommitExecutor() {
+    if (closed)
+      throw new IllegalStateException("configuration is closed");
+    if (asyncCommitExecutor == null) {
+      int threads = getIntProperty(AccismusProperties.COMMIT_ASYNC_THREADS_PROP);
+      asyncCommitExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+          getIntProperty(AccismusProperties.COMMIT_ASYNC_QUEUE_SIZE_PROP)), new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          // unfinished commits and rollbacks are resolved by readers, so these threads should not keep the JVM alive
+          Thread thread = new Thread(r, "async commit");
+          thread.setDaemon(true);
+          return thread;
+        }
+      }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+    return asyncCommitExecutor;
+  }
+  
+  /**
+   * @return the liveness record of this process, used to tag locks with their owner and to check if the owners of other locks are alive
+   */
+  public synchronized Transactor getTransactor() {
+    if (writersClosed)
+      throw new IllegalStateException("configuration is closed");
+    if (transactor == null) {
+      try {
+        transactor = new Transactor(this);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return transactor;
+  }
+  
+  public CommitStats getCommitStats() {
+    return commitStats;
+  }
+  
+  public ScanStats getScanStats() {
+    return scanStats;
+  }
+  
+  /**
+   * @return a cache of transactions known to be committed or rolled back, shared by all lock resolution using this configuration
+   */
+  public TxStatusCache getTxStatusCache() {
+    return txStatusCache;
+  }
+  
+  /**
+   * Releases the resources shared by transactions using this configuration, waiting for any background commits to finish first. Once closed, getting a
+   * shared executor or writer throws an IllegalStateException instead of creating one that would never be closed.
+   */
+  public void close() {
+    ThreadPoolExecutor executor;
+    synchronized (this) {
+      if (closed)
+        return;
+      closed = true;
+
+      executor = asyncCommitExecutor;
+      asyncCommitExecutor = null;
+    }
+    
+    // do not hold the lock while waiting, background commits need it to get the batch writer
+    if (executor != null) {
+      executor.shutdown();
+      try {
+        while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {}
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    
+    closeWriters();
+  }
+  
+  private synchronized void closeWriters() {
+    writersClosed = true;
+
+    if (transactor != null) {
+      transactor.close();
+      transactor = null;
+    }
+    
+    if (sharedConditionalWriter != null) {
+      sharedConditionalWriter.close();
+      sharedConditionalWriter = null;
+    }
+    
+    if (sharedBatchWriter != null) {
+      try {
+        sharedBatchWriter.close();
+      } catch (MutationsRejectedException e) {
+        throw new RuntimeException(e);
+      } finally {
+        sharedBatchWriter = null;
+      }
+    }
   }
 
   public String getZookeeperRoot() {
@@ -197,4 +389,23 @@ public class Configuration {
   public Properties getWorkerProperties() {
     return workerProps;
   }
+  
+  /**
+   * @return the client properties this configuration was created with, backed by the defaults
+   */
+  public Properties getProperties() {
+    return props;
+  }
+  
+  public int getIntProperty(String key) {
+    return Integer.parseInt(props.getProperty(key));
+  }
+  
+  public long getLongProperty(String key) {
+    return Long.parseLong(props.getProperty(key));
+  }
+  
+  public boolean getBooleanProperty(String key) {
+    return Boolean.parseBoolean(props.getProperty(key));
+  }
 }
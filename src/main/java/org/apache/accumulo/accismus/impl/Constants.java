@@ -37,6 +37,9 @@ public class Constants {
     public static final String ORACLE = "/oracle";
     public static final String TIMESTAMP = ORACLE + "/timestamp";
     public static final String ORACLE_SERVER = ORACLE + "/server";
+    public static final String ORACLE_ELECTION = ORACLE + "/election";
+    
+    public static final String TRANSACTORS = "/transactors";
   }
 
   public static final String WORKER_THREADS = "accismus.config.worker.numThreads";
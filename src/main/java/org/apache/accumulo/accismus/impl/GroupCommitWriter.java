@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.accismus.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.accumulo.core.client.AccumuloException;
+import org.apache.accumulo.core.client.ConditionalWriter;
+import org.apache.accumulo.core.data.ConditionalMutation;
+import org.apache.log4j.Logger;
+
+/**
+ * A conditional writer that combines mutations written concurrently by many transactions into shared batches. A mutation waits up to a linger time for
+ * others to join its batch, then the batch is written with one call to the underlying writer and each result is handed back to the thread that wrote the
+ * mutation.
+ */
+public class GroupCommitWriter implements ConditionalWriter {
+
+  private static Logger log = Logger.getLogger(GroupCommitWriter.class);
+
+  private static final class PendingMutation {
+    private ConditionalMutation mutation;
+    private Result result;
+
+    PendingMutation(ConditionalMutation mutation) {
+      this.mutation = mutation;
+    }
+
+    synchronized void complete(Result result) {
+      this.result = result;
+      notifyAll();
+    }
+
+    synchronized Result getResult() {
+      while (result == null) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return new Result(e, mutation, null);
+        }
+      }
+      return result;
+    }
+  }
+
+  private class BatchWriterTask implements Runnable {
+
+    public void run() {
+      boolean interrupted = false;
+
+      while (!closed || queue.size() > 0) {
+        ArrayList<PendingMutation> pending = new ArrayList<PendingMutation>();
+
+        try {
+          PendingMutation first = queue.poll(100, TimeUnit.MILLISECONDS);
+          if (first == null)
+            continue;
+          pending.add(first);
+
+          // give other transactions a chance to join this batch
+          Thread.sleep(lingerTime);
+        } catch (InterruptedException e) {
+          // an interrupt shuts the writer down, mutations already queued are still written so that no writer waits forever on a result
+          log.debug("Group commit writer interrupted, closing", e);
+          interrupted = true;
+          closed = true;
+        }
+
+        queue.drainTo(pending);
+
+        if (pending.size() == 0)
+          continue;
+
+        // results return the mutation that was written, so they are matched by identity and a batch may have several mutations for a row
+        Map<ConditionalMutation,PendingMutation> batch = new IdentityHashMap<ConditionalMutation,PendingMutation>();
+        for (PendingMutation pm : pending)
+          batch.put(pm.mutation, pm);
+
+        batchSizes.add(batch.size());
+        writeBatch(batch);
+      }
+
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+
+    private void writeBatch(Map<ConditionalMutation,PendingMutation> batch) {
+      ArrayList<ConditionalMutation> mutations = new ArrayList<ConditionalMutation>(batch.size());
+      for (PendingMutation pm : batch.values())
+        mutations.add(pm.mutation);
+
+      Exception error = null;
+
+      try {
+        Iterator<Result> results = writer.write(mutations.iterator());
+        while (results.hasNext()) {
+          Result result = results.next();
+          PendingMutation pm = batch.remove(result.getMutation());
+          if (pm == null)
+            throw new IllegalStateException("unexpected result for mutation " + result.getMutation());
+          pm.complete(result);
+        }
+      } catch (RuntimeException e) {
+        log.warn("Failed to write batch of " + mutations.size() + " conditional mutations", e);
+        error = e;
+      }
+
+      for (PendingMutation pm : batch.values())
+        pm.complete(new Result(error == null ? new AccumuloException("no result for mutation") : error, pm.mutation, null));
+    }
+  }
+
+  private ConditionalWriter writer;
+  private long lingerTime;
+  private Histogram batchSizes;
+  private LinkedBlockingQueue<PendingMutation> queue = new LinkedBlockingQueue<PendingMutation>();
+  private volatile boolean closed = false;
+  private ArrayList<Thread> threads = new ArrayList<Thread>();
+
+  /**
+   * @param writer
+   *          the writer batches are written to, closed when this writer is closed
+   * @param lingerTime
+   *          milliseconds a mutation will wait for other mutations to join its batch
+   * @param numThreads
+   *          maximum number of batches written at once
+   * @param batchSizes
+   *          records the number of mutations in each batch
+   */
+  public GroupCommitWriter(ConditionalWriter writer, long lingerTime, int numThreads, Histogram batchSizes) {
+    this.writer = writer;
+    this.lingerTime = lingerTime;
+    this.batchSizes = batchSizes;
+
+    for (int i = 0; i < numThreads; i++) {
+      Thread thread = new Thread(new BatchWriterTask(), "group-commit-" + i);
+      thread.setDaemon(true);
+      thread.start();
+      threads.add(thread);
+    }
+  }
+
+  public Iterator<Result> write(Iterator<ConditionalMutation> mutations) {
+    if (closed)
+      throw new IllegalStateException("closed");
+
+    final ArrayList<PendingMutation> submitted = new ArrayList<PendingMutation>();
+    while (mutations.hasNext()) {
+      PendingMutation pm = new PendingMutation(mutations.next());
+      submitted.add(pm);
+      queue.add(pm);
+    }
+
+    return new Iterator<Result>() {
+      private Iterator<PendingMutation> iter = submitted.iterator();
+
+      public boolean hasNext() {
+        return iter.hasNext();
+      }
+
+      public Result next() {
+        if (!iter.hasNext())
+          throw new NoSuchElementException();
+        return iter.next().getResult();
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  public Result write(ConditionalMutation mutation) {
+    return write(Collections.singleton(mutation).iterator()).next();
+  }
+
+  /**
+   * Writes any mutations still waiting, then closes the underlying writer.
+   */
+  public void close() {
+    closed = true;
+
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    writer.close();
+  }
+}
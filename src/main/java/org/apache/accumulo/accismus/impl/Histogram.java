@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.accismus.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe histogram of non-negative values. Values are counted in power of two buckets, so percentiles are approximate. A percentile is reported as the
+ * upper bound of the bucket it falls in.
+ */
+public class Histogram {
+
+  private AtomicLongArray buckets = new AtomicLongArray(64);
+  private AtomicLong count = new AtomicLong(0);
+  private AtomicLong sum = new AtomicLong(0);
+  private AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+  private AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+  private static int bucket(long value) {
+    return 64 - Long.numberOfLeadingZeros(value);
+  }
+
+  public void add(long value) {
+    if (value < 0)
+      throw new IllegalArgumentException("negative value " + value);
+
+    buckets.incrementAndGet(Math.min(63, bucket(value)));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+
+    long m = min.get();
+    while (value < m && !min.compareAndSet(m, value))
+      m = min.get();
+
+    m = max.get();
+    while (value > m && !max.compareAndSet(m, value))
+      m = max.get();
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getSum() {
+    return sum.get();
+  }
+
+  public long getMin() {
+    return count.get() == 0 ? 0 : min.get();
+  }
+
+  public long getMax() {
+    return count.get() == 0 ? 0 : max.get();
+  }
+
+  public double getMean() {
+    long c = count.get();
+    return c == 0 ? 0 : sum.get() / (double) c;
+  }
+
+  /**
+   * @param percentile
+   *          a number between 0 and 100
+   */
+  public long getPercentile(double percentile) {
+    long c = count.get();
+    if (c == 0)
+      return 0;
+
+    long target = (long) Math.ceil(c * percentile / 100.0);
+    long seen = 0;
+    for (int i = 0; i < buckets.length(); i++) {
+      seen += buckets.get(i);
+      if (seen >= target && seen > 0) {
+        long upper = i == 0 ? 0 : (i == 63 ? Long.MAX_VALUE : (1l << i) - 1);
+        return Math.min(upper, getMax());
+      }
+    }
+
+    return getMax();
+  }
+
+  public String toString() {
+    return String.format("count:%,d mean:%,.2f min:%,d p50:%,d p90:%,d p99:%,d max:%,d", getCount(), getMean(), getMin(), getPercentile(50),
+        getPercentile(90), getPercentile(99), getMax());
+  }
+}
@@ -21,32 +21,108 @@ import java.util.List;
 import org.apache.accumulo.accismus.api.Column;
 import org.apache.accumulo.core.data.ArrayByteSequence;
 import org.apache.accumulo.core.data.ByteSequence;
-import org.apache.accumulo.core.security.ColumnVisibility;
+import org.apache.accumulo.core.data.Key;
 
 /**
+ * The value of a lock column, which points to the primary column of the transaction that wrote the lock.
  * 
+ * <p>
+ * Locks are written as a version byte, a flags byte and then the primary row, family, qualifier, visibility, observer and optionally the transactor, each
+ * prefixed by its length as a vint. Most locks share their row or column with the primary, flags record this and the shared fields are left out and taken
+ * from the lock's key when decoding. Locks written before the version byte was introduced are a list of length prefixed fields. The first byte of those is the
+ * vint length of the primary row, which is never {@link #VERSION}, so both formats can be read.
  */
 public class LockValue {
   
   private static final ByteSequence TBS = new ArrayByteSequence("T");
   private static final ByteSequence FBS = new ArrayByteSequence("F");
   
+  // decodes as a negative vint, so it can not start a lock in the old format
+  static final byte VERSION = (byte) 0x81;
+
+  private static final int WRITE_FLAG = 0x01;
+  private static final int TRANSACTOR_FLAG = 0x02;
+  // the lock is in the primary's row, the primary row is omitted
+  private static final int PRIMARY_ROW_FLAG = 0x04;
+  // the lock is on the primary's column, the primary family, qualifier and visibility are omitted
+  private static final int PRIMARY_COLUMN_FLAG = 0x08;
+
   private ByteSequence prow;
   private Column pcol;
+  private ByteSequence pvis;
   private boolean isWrite;
   private ByteSequence observer;
+  private ByteSequence transactor;
+
+  /**
+   * The primary row, column and observer returned are views of the passed in key and array, which must not be modified.
+   * 
+   * @param lockKey
+   *          the key the lock was read from, supplies any fields the lock shares with the primary
+   */
+  public LockValue(Key lockKey, byte[] enc) {
+    this(lockKey.getRowData(), lockKey.getColumnFamilyData(), lockKey.getColumnQualifierData(), lockKey.getColumnVisibilityData(), enc);
+  }
+
+  /**
+   * @param row
+   *          the row of the lock
+   * @param col
+   *          the column of the lock
+   */
+  public LockValue(ByteSequence row, Column col, byte[] enc) {
+    this(row, col.getFamily(), col.getQualifier(), new ArrayByteSequence(col.getVisibility().getExpression()), enc);
+  }
+
+  private LockValue(ByteSequence row, ByteSequence fam, ByteSequence qual, ByteSequence vis, byte[] enc) {
+    if (enc.length > 0 && enc[0] == VERSION) {
+      decode(row, fam, qual, vis, enc);
+    } else {
+      decodeOld(enc);
+    }
+  }
+
+  private void decode(ByteSequence row, ByteSequence fam, ByteSequence qual, ByteSequence vis, byte[] enc) {
+    if (enc.length < 2)
+      throw new IllegalArgumentException("lock value too short");
+
+    List<ByteSequence> fields = ByteUtil.split(new ArrayByteSequence(enc, 2, enc.length - 2));
+    int flags = enc[1];
+    boolean inPrimaryRow = (flags & PRIMARY_ROW_FLAG) != 0;
+    boolean isPrimaryColumn = (flags & PRIMARY_COLUMN_FLAG) != 0;
+    boolean hasTransactor = (flags & TRANSACTOR_FLAG) != 0;
+
+    int expected = (inPrimaryRow ? 0 : 1) + (isPrimaryColumn ? 0 : 3) + 1 + (hasTransactor ? 1 : 0);
+    if (fields.size() != expected)
+      throw new IllegalArgumentException("expected " + expected + " fields in lock value but found " + fields.size());
 
-  public LockValue(byte[] enc) {
+    int i = 0;
+    this.prow = inPrimaryRow ? row : fields.get(i++);
+    if (isPrimaryColumn) {
+      this.pvis = vis;
+      this.pcol = new Column(fam, qual);
+    } else {
+      this.pcol = new Column(fields.get(i++), fields.get(i++));
+      this.pvis = fields.get(i++);
+    }
+    this.pcol.setVisibility(VisibilityCache.get(pvis));
+    this.isWrite = (flags & WRITE_FLAG) != 0;
+    this.observer = fields.get(i++);
+    if (hasTransactor)
+      this.transactor = fields.get(i++);
+  }
+
+  private void decodeOld(byte[] enc) {
     List<ByteSequence> fields = ByteUtil.split(new ArrayByteSequence(enc));
     
     if (fields.size() != 6)
-      throw new IllegalArgumentException("more fields than expected");
+      throw new IllegalArgumentException("expected 6 fields in lock value but found " + fields.size());
     
     this.prow = fields.get(0);
-    this.pcol = new Column(fields.get(1), fields.get(2)).setVisibility(new ColumnVisibility(fields.get(3).toArray()));
+    this.pvis = fields.get(3);
+    this.pcol = new Column(fields.get(1), fields.get(2)).setVisibility(VisibilityCache.get(pvis));
     this.isWrite = fields.get(4).equals(TBS);
     this.observer = fields.get(5);
-    
   }
   
   public ByteSequence getPrimaryRow() {
@@ -57,6 +133,13 @@ public class LockValue {
     return pcol;
   }
   
+  /**
+   * @return the visibility expression of the primary column, as it was written
+   */
+  public ByteSequence getPrimaryVisibility() {
+    return pvis;
+  }
+
   public boolean isWrite() {
     return isWrite;
   }
@@ -64,7 +147,70 @@ public class LockValue {
   public ByteSequence getObserver() {
     return observer;
   }
-  public static byte[] encode(ByteSequence prow, Column pcol, boolean isWrite, ByteSequence observer) {
+
+  /**
+   * @return the transactor that wrote the lock, or null if the writer did not record one
+   */
+  public ByteSequence getTransactor() {
+    return transactor;
+  }
+
+  /**
+   * @param row
+   *          the row the lock will be written to
+   * @param col
+   *          the column the lock will be written to
+   */
+  public static byte[] encode(ByteSequence row, Column col, ByteSequence prow, Column pcol, boolean isWrite, ByteSequence observer) {
+    return encode(row, col, prow, pcol, isWrite, observer, null);
+  }
+
+  /**
+   * @param row
+   *          the row the lock will be written to
+   * @param col
+   *          the column the lock will be written to
+   * @param transactor
+   *          the transactor writing the lock, may be null
+   */
+  public static byte[] encode(ByteSequence row, Column col, ByteSequence prow, Column pcol, boolean isWrite, ByteSequence observer, ByteSequence transactor) {
+    boolean inPrimaryRow = row.equals(prow);
+    boolean isPrimaryColumn = col.equals(pcol);
+
+    ByteSequence vis = isPrimaryColumn ? null : new ArrayByteSequence(pcol.getVisibility().getExpression());
+
+    int size = 2 + ByteUtil.encodedLength(observer);
+    if (!inPrimaryRow)
+      size += ByteUtil.encodedLength(prow);
+    if (!isPrimaryColumn)
+      size += ByteUtil.encodedLength(pcol.getFamily()) + ByteUtil.encodedLength(pcol.getQualifier()) + ByteUtil.encodedLength(vis);
+    if (transactor != null)
+      size += ByteUtil.encodedLength(transactor);
+
+    byte[] ret = new byte[size];
+    ret[0] = VERSION;
+    ret[1] = (byte) ((isWrite ? WRITE_FLAG : 0) | (transactor == null ? 0 : TRANSACTOR_FLAG) | (inPrimaryRow ? PRIMARY_ROW_FLAG : 0)
+        | (isPrimaryColumn ? PRIMARY_COLUMN_FLAG : 0));
+
+    int offset = 2;
+    if (!inPrimaryRow)
+      offset = ByteUtil.write(ret, offset, prow);
+    if (!isPrimaryColumn) {
+      offset = ByteUtil.write(ret, offset, pcol.getFamily());
+      offset = ByteUtil.write(ret, offset, pcol.getQualifier());
+      offset = ByteUtil.write(ret, offset, vis);
+    }
+    offset = ByteUtil.write(ret, offset, observer);
+    if (transactor != null)
+      offset = ByteUtil.write(ret, offset, transactor);
+
+    return ret;
+  }
+
+  /**
+   * Encodes a lock value in the format used before {@link #VERSION} was introduced, which clients write until they are configured for the new format.
+   */
+  static byte[] encodeOld(ByteSequence prow, Column pcol, boolean isWrite, ByteSequence observer) {
     return ByteUtil.concat(prow, pcol.getFamily(), pcol.getQualifier(), new ArrayByteSequence(pcol.getVisibility().getExpression()), isWrite ? TBS : FBS,
         observer);
   }
@@ -16,15 +16,20 @@
  */
 package org.apache.accumulo.accismus.impl;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.accumulo.accismus.api.config.AccismusProperties;
 import org.apache.accumulo.accismus.impl.thrift.OracleService;
+import org.apache.log4j.Logger;
+import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TCompactProtocol;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.transport.TFastFramedTransport;
@@ -32,32 +37,143 @@ import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
 import org.apache.zookeeper.ZooKeeper;
 
 /**
- * 
+ * Batches timestamp requests from many threads. Several retriever threads drain the request queue, so while one batch is waiting on the oracle the next
+ * batch can be sent on another connection. The number of retriever threads bounds the number of batches in flight. The client watches the leader oracle's
+ * node in zookeeper and moves its connections when a standby takes over.
  */
 public class OracleClient {
   
-  private static final class TimeRequest {
-    CountDownLatch cdl = new CountDownLatch(1);
-    AtomicLong timestamp = new AtomicLong();
+  private static Logger log = Logger.getLogger(OracleClient.class);
+
+  /**
+   * Receives the result of an asynchronous timestamp request. Callbacks run on the oracle client's retriever threads, so they should be quick and must not
+   * block on other timestamp requests.
+   */
+  public static interface TimestampCallback {
+    void timestampReceived(long timestamp);
+
+    void failed(Exception e);
   }
 
-  private class TimestampRetriever implements Runnable {
+  /**
+   * A request is its own future, so completing it needs no objects beyond the request itself.
+   */
+  private static final class TimeRequest implements Future<Long> {
+    private long timestamp;
+    private Exception error;
+    private boolean done = false;
+    private TimestampCallback callback;
+    private long queueTime = System.nanoTime();
+
+    TimeRequest(TimestampCallback callback) {
+      this.callback = callback;
+    }
+
+    void complete(long ts) {
+      synchronized (this) {
+        timestamp = ts;
+        done = true;
+        notifyAll();
+      }
+
+      if (callback != null)
+        callback.timestampReceived(ts);
+    }
+
+    void fail(Exception e) {
+      synchronized (this) {
+        error = e;
+        done = true;
+        notifyAll();
+      }
+
+      if (callback != null)
+        callback.failed(e);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+      return done;
+    }
+
+    private Long result() throws ExecutionException {
+      if (error != null)
+        throw new ExecutionException(error);
+      return timestamp;
+    }
+
+    @Override
+    public synchronized Long get() throws InterruptedException, ExecutionException {
+      while (!done)
+        wait();
+      return result();
+    }
+
+    @Override
+    public synchronized Long get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      while (!done) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0)
+          throw new TimeoutException();
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+      return result();
+    }
+  }
 
+  /**
+   * A pooled connection, the client is created lazily and recreated after a transport error.
+   */
+  private static final class Connection {
+    OracleService.Client client;
+    String address;
 
-    TimestampRetriever() throws Exception {
+    void connect(String address) throws TTransportException {
+      String host = address.split(":")[0];
+      int port = Integer.parseInt(address.split(":")[1]);
 
+      TTransport transport = new TFastFramedTransport(new TSocket(host, port));
+      transport.open();
+      TProtocol protocol = new TCompactProtocol(transport);
+      this.client = new OracleService.Client(protocol);
+      this.address = address;
     }
 
+    void close() {
+      if (client != null) {
+        // TODO is this correct way to close?
+        client.getInputProtocol().getTransport().close();
+        client.getOutputProtocol().getTransport().close();
+        client = null;
+        address = null;
+      }
+    }
+  }
+
+  private class TimestampRetriever implements Runnable {
+
     public void run() {
       ArrayList<TimeRequest> request = new ArrayList<TimeRequest>();
       
       try {
         
-        OracleService.Client client = connect();
-
         while (true) {
           request.clear();
           request.add(queue.take());
@@ -65,73 +181,312 @@ public class OracleClient {
           
           long start;
 
-          while (true) {
-            try {
-              start = client.getTimestamps(config.getAccismusInstanceID(), request.size());
-              break;
-            } catch (TTransportException tte) {
-              // TODO is this correct way to close?
-              client.getInputProtocol().getTransport().close();
-              client.getOutputProtocol().getTransport().close();
-              
-              // TODO maybe sleep a bit?
-              client = connect();
-            }
-            
+          Connection conn = connections.take();
+          try {
+            start = getTimestamps(conn, request.size());
+          } catch (InterruptedException ie) {
+            throw ie;
+          } catch (Exception e) {
+            log.error("Failed to get " + request.size() + " timestamps from oracle", e);
+            for (TimeRequest tr : request)
+              tr.fail(e);
+            continue;
+          } finally {
+            connections.add(conn);
           }
           
+          long now = System.nanoTime();
+          batchSizes.add(request.size());
+
           for (int i = 0; i < request.size(); i++) {
             TimeRequest tr = request.get(i);
-            tr.timestamp.set(start + i);
-            tr.cdl.countDown();
+            waitTimes.add((now - tr.queueTime) / 1000);
+            tr.complete(start + i);
           }
 
         }
 
-      } catch (Exception e) {
-        // TODO
-        e.printStackTrace();
+      } catch (InterruptedException e) {
+        log.debug("Timestamp retriever interrupted", e);
+        for (TimeRequest tr : request)
+          tr.fail(e);
       }
     }
 
-    private OracleService.Client connect() throws IOException, KeeperException, InterruptedException, TTransportException {
-      // TODO use shared zookeeper or curator
-      ZooKeeper zk = new ZooKeeper(config.getConnector().getInstance().getZooKeepers(), 30000, null);
-      String server = new String(zk.getData(config.getZookeeperRoot() + Constants.Zookeeper.ORACLE_SERVER, false, null));
+    private long getTimestamps(Connection conn, int num) throws Exception {
+      while (true) {
+        String address = getOracleAddress();
 
-      String host = server.split(":")[0];
-      int port = Integer.parseInt(server.split(":")[1]);
+        if (conn.client != null && !address.equals(conn.address))
+          conn.close();
 
-      zk.close();
+        try {
+          if (conn.client == null)
+            conn.connect(address);
 
-      TTransport transport = new TFastFramedTransport(new TSocket(host, port));
-      transport.open();
-      TProtocol protocol = new TCompactProtocol(transport);
-      OracleService.Client client = new OracleService.Client(protocol);
-      return client;
+          long start = conn.client.getTimestamps(config.getAccismusInstanceID(), num);
+          if (start != OracleServer.NOT_LEADER)
+            return start;
+
+          log.debug(address + " is not the oracle leader");
+        } catch (TTransportException te) {
+          // the oracle died, other errors are returned by a running oracle and are passed to the waiting requests
+          log.debug("Failed to get timestamps from " + address + " " + te.getMessage());
+          conn.close();
+        } catch (TException te) {
+          // the connection may not be usable after a protocol or application error
+          conn.close();
+          throw te;
+        }
+
+        // the watch on the oracle node will point at the new leader
+        waitForOracleChange(address, RETRY_WAIT);
+      }
+    }
+  }
+
+  private class OracleWatcher implements Watcher {
+    @Override
+    public void process(WatchedEvent event) {
+      if (event.getType() == EventType.None) {
+        switch (event.getState()) {
+          case SyncConnected:
+            updateOracleAddress();
+            break;
+          case Expired:
+            try {
+              zk.close();
+              zk = new ZooKeeper(config.getConnector().getInstance().getZooKeepers(), config.getIntProperty(AccismusProperties.ZOOKEEPER_TIMEOUT_PROP),
+                  this);
+            } catch (Exception e) {
+              log.error("Failed to reconnect to zookeeper", e);
+            }
+            break;
+          default:
+            break;
+        }
+      } else {
+        updateOracleAddress();
+      }
     }
   }
 
+  /**
+   * A timestamp request that read only snapshots may share, along with when it was made.
+   */
+  private static final class SharedTimestamp {
+    final long requestTime;
+    final Future<Long> future;
+
+    SharedTimestamp(long requestTime, Future<Long> future) {
+      this.requestTime = requestTime;
+      this.future = future;
+    }
+  }
+
+  // how long to wait for a new oracle to be advertised after a failure before retrying the same one
+  private static final long RETRY_WAIT = 100;
+
   private static Map<String,OracleClient> clients = new HashMap<String,OracleClient>();
 
 
   private Configuration config;
   private ArrayBlockingQueue<TimeRequest> queue = new ArrayBlockingQueue<TimeRequest>(1000);
+  private ArrayBlockingQueue<Connection> connections;
+  
+  private Histogram batchSizes = new Histogram();
+  private Histogram waitTimes = new Histogram();
+  
+  private volatile SharedTimestamp sharedTs;
+  private AtomicLong sharedTimestampsServed = new AtomicLong(0);
+  private AtomicLong sharedTimestampsFetched = new AtomicLong(0);
+  
+  private volatile ZooKeeper zk;
+  private OracleWatcher watcher = new OracleWatcher();
+  // the address of the leader oracle or null if none is advertised
+  private Object addressLock = new Object();
+  private String oracleAddress;
 
   private OracleClient(Configuration config) throws Exception {
     this.config = config;
     
-    // TODO make thread exit if idle for a bit, and start one when request arrives
-    Thread thread = new Thread(new TimestampRetriever());
-    thread.setDaemon(true);
-    thread.start();
+    int numConnections = config.getIntProperty(AccismusProperties.ORACLE_CLIENT_CONNECTIONS_PROP);
+    int maxInFlight = config.getIntProperty(AccismusProperties.ORACLE_CLIENT_MAX_IN_FLIGHT_PROP);
+    
+    connections = new ArrayBlockingQueue<Connection>(numConnections);
+    for (int i = 0; i < numConnections; i++)
+      connections.add(new Connection());
+
+    zk = new ZooKeeper(config.getConnector().getInstance().getZooKeepers(), config.getIntProperty(AccismusProperties.ZOOKEEPER_TIMEOUT_PROP), watcher);
+    updateOracleAddress();
+
+    // TODO make threads exit if idle for a bit, and start one when request arrives
+    for (int i = 0; i < maxInFlight; i++) {
+      Thread thread = new Thread(new TimestampRetriever(), "oracle-client-" + i);
+      thread.setDaemon(true);
+      thread.start();
+    }
+    
+    log.debug("Started oracle client with " + numConnections + " connections and " + maxInFlight + " max batches in flight");
   }
   
+  /**
+   * Reads the leader's address and leaves a watch on its node, so a new leader is seen as soon as it advertises.
+   */
+  private void updateOracleAddress() {
+    ZooKeeper zk = this.zk;
+    if (zk == null)
+      // called by the watcher before the constructor finished, the constructor will read the address
+      return;
+
+    String path = config.getZookeeperRoot() + Constants.Zookeeper.ORACLE_SERVER;
+    String address = null;
+
+    try {
+      // exists leaves a watch even when the node is absent
+      if (zk.exists(path, watcher) != null)
+        address = new String(zk.getData(path, watcher, null), "UTF-8");
+    } catch (KeeperException.NoNodeException e) {
+      // exists left a watch, so will see the next leader
+    } catch (Exception e) {
+      log.warn("Failed to read oracle address", e);
+    }
+
+    synchronized (addressLock) {
+      if (address == null ? oracleAddress != null : !address.equals(oracleAddress))
+        log.debug("Oracle address changed from " + oracleAddress + " to " + address);
+
+      oracleAddress = address;
+      addressLock.notifyAll();
+    }
+  }
+
+  private String getOracleAddress() throws InterruptedException {
+    synchronized (addressLock) {
+      while (oracleAddress == null) {
+        addressLock.wait(1000);
+        if (oracleAddress == null)
+          log.warn("Waiting for an oracle to become available");
+      }
+      return oracleAddress;
+    }
+  }
+
+  private void waitForOracleChange(String address, long timeout) throws InterruptedException {
+    synchronized (addressLock) {
+      if (address.equals(oracleAddress))
+        addressLock.wait(timeout);
+    }
+  }
+
+  /**
+   * Blocks until a timestamp is available.
+   */
   public long getTimestamp() throws Exception {
-    TimeRequest tr = new TimeRequest();
-    queue.add(tr);
-    tr.cdl.await();
-    return tr.timestamp.get();
+    try {
+      return getTimestampAsync().get();
+    } catch (ExecutionException ee) {
+      if (ee.getCause() instanceof Exception)
+        throw (Exception) ee.getCause();
+      throw ee;
+    }
+  }
+
+  /**
+   * Queues a request for a timestamp and returns without waiting on the oracle. Only blocks if the request queue is full.
+   */
+  public Future<Long> getTimestampAsync() {
+    return getTimestampAsync(null);
+  }
+
+  /**
+   * Queues a request for a timestamp, the callback is called when the timestamp arrives or the request fails.
+   * 
+   * @param callback
+   *          may be null
+   */
+  public Future<Long> getTimestampAsync(TimestampCallback callback) {
+    TimeRequest tr = new TimeRequest(callback);
+    try {
+      queue.put(tr);
+    } catch (InterruptedException e) {
+      tr.fail(e);
+    }
+    return tr;
+  }
+
+  /**
+   * Gets a timestamp for a read only snapshot. Callers within one JVM share a timestamp that was requested no more than maxStalenessMs ago, so a snapshot may
+   * not see transactions that committed in that window. The timestamp must never be used to commit.
+   * 
+   * @param maxStalenessMs
+   *          if zero or less, a fresh timestamp is always fetched
+   */
+  public long getSharedTimestamp(long maxStalenessMs) throws Exception {
+    if (maxStalenessMs <= 0) {
+      sharedTimestampsFetched.incrementAndGet();
+      return getTimestamp();
+    }
+
+    long maxStaleness = TimeUnit.MILLISECONDS.toNanos(maxStalenessMs);
+    long now = System.nanoTime();
+    SharedTimestamp st = sharedTs;
+
+    if (st == null || now - st.requestTime > maxStaleness) {
+      synchronized (this) {
+        st = sharedTs;
+        if (st == null || now - st.requestTime > maxStaleness) {
+          st = new SharedTimestamp(now, getTimestampAsync());
+          sharedTs = st;
+          sharedTimestampsFetched.incrementAndGet();
+        } else {
+          sharedTimestampsServed.incrementAndGet();
+        }
+      }
+    } else {
+      sharedTimestampsServed.incrementAndGet();
+    }
+
+    try {
+      // if the request is still in flight, the timestamp will be newer than this call
+      return st.future.get();
+    } catch (ExecutionException ee) {
+      synchronized (this) {
+        if (sharedTs == st)
+          sharedTs = null;
+      }
+      if (ee.getCause() instanceof Exception)
+        throw (Exception) ee.getCause();
+      throw ee;
+    }
+  }
+
+  /**
+   * @return the number of calls to {@link #getSharedTimestamp(long)} that reused a timestamp requested by another call
+   */
+  public long getSharedTimestampsServed() {
+    return sharedTimestampsServed.get();
+  }
+
+  /**
+   * @return the number of calls to {@link #getSharedTimestamp(long)} that requested a new timestamp from the oracle
+   */
+  public long getSharedTimestampsFetched() {
+    return sharedTimestampsFetched.get();
+  }
+
+  /**
+   * @return the number of timestamps requested in each call to the oracle
+   */
+  public Histogram getBatchSizes() {
+    return batchSizes;
+  }
+
+  /**
+   * @return the time in microseconds each timestamp request waited, from being queued until the timestamp was available
+   */
+  public Histogram getWaitTimes() {
+    return waitTimes;
   }
 
   public static synchronized OracleClient getInstance(Configuration config) {
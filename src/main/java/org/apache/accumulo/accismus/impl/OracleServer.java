@@ -17,8 +17,13 @@
 package org.apache.accumulo.accismus.impl;
 
 import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.accumulo.accismus.api.config.AccismusProperties;
 import org.apache.accumulo.accismus.impl.thrift.OracleService;
+import org.apache.accumulo.core.util.UtilWaitThread;
 import org.apache.log4j.Logger;
 import org.apache.thrift.TException;
 import org.apache.thrift.TProcessor;
@@ -27,21 +32,64 @@ import org.apache.thrift.server.THsHaServer;
 import org.apache.thrift.transport.TNonblockingServerSocket;
 import org.apache.thrift.transport.TTransportException;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.data.Stat;
 
 /**
- * 
+ * Issues timestamps. Any number of oracle servers may be started, they contend for leadership using ephemeral sequential nodes in zookeeper and only the
+ * leader issues timestamps. Each standby watches the candidate just ahead of it and takes over when that candidate goes away.
  */
 public class OracleServer implements OracleService.Iface {
-  private long currentTs = 0;
-  private long maxTs = 0;
-  private ZooKeeper zk;
+  
+  // blocks are sized so that they last about this long at the rate timestamps are being issued
+  private static final long BLOCK_TIME = 1000;
+  private static final long MIN_BLOCK_SIZE = 1000;
+  private static final long MAX_BLOCK_SIZE = 10000000;
+
+  // bounds on how long the allocator waits before retrying a failed allocation
+  private static final long MIN_RETRY_BACKOFF = 50;
+  private static final long MAX_RETRY_BACKOFF = 5000;
+
+  /**
+   * Returned by {@link #getTimestamps(String, int)} when this server is not the leader, so clients can tell a request that should go to another oracle
+   * from one that failed.
+   */
+  public static final long NOT_LEADER = -1;
+
+  // the common case for issuing timestamps is a single compare and set against currentTs, maxTs only ever increases while the server is leader
+  private AtomicLong currentTs = new AtomicLong(0);
+  private volatile long maxTs = 0;
+  private volatile long blockSize = MIN_BLOCK_SIZE;
+  private volatile boolean allocationRequested = false;
+  
+  // the following are guarded by this
+  private int maxTsVersion;
+  private Exception allocationError = null;
+  private long tsAtLastAllocation;
+  private long lastAllocationTime;
+  private long allocationWaitTime = 0;
+  private long allocations = 0;
+  private boolean electionCheckNeeded = false;
+  private boolean sessionExpired = false;
+
+  private volatile ZooKeeper zk;
   private Configuration config;
   private Thread serverThread;
+  private volatile Thread allocatorThread;
+  private Thread electionThread;
   private THsHaServer server;
-  private boolean started = false;
+  private String address;
+  private String electionNode;
+  // running is true between start and stop, leader is true only while this server may issue timestamps
+  private volatile boolean running = false;
+  private volatile boolean leader = false;
+  // incremented each time this server becomes leader, so a request that started in an earlier term is not answered in a later one
+  private volatile long term = 0;
   
   private static Logger log = Logger.getLogger(OracleServer.class);
 
@@ -49,49 +97,435 @@ public class OracleServer implements OracleService.Iface {
     this.config = config;
   }
   
-  private void allocateTimestamp() throws Exception {
-    Stat stat = new Stat();
-    byte[] d = zk.getData(config.getZookeeperRoot() + Constants.Zookeeper.TIMESTAMP, null, stat);
+  /**
+   * Extends the persisted timestamp ceiling by size. The version check on the set ensures nothing else modified the ceiling since this server last wrote it.
+   */
+  private long allocateTimestamps(long size) throws Exception {
+    long newMax = maxTs + size;
     
-    // TODO check that d is expected
-    // TODO check that stil server when setting
-    // TODO make num allocated variable... when a server first starts allocate a small amount... the longer it runs and the busier it is, allocate bigger blocks
+    Stat stat = zk.setData(config.getZookeeperRoot() + Constants.Zookeeper.TIMESTAMP, (newMax + "").getBytes("UTF-8"), maxTsVersion);
+    maxTsVersion = stat.getVersion();
     
-    long newMax = Long.parseLong(new String(d)) + 1000;
-    
-    zk.setData(config.getZookeeperRoot() + Constants.Zookeeper.TIMESTAMP, (newMax + "").getBytes("UTF-8"), stat.getVersion());
+    return newMax;
+  }
+
+  private long computeBlockSize() {
+    long now = System.currentTimeMillis();
+    long elapsed = Math.max(1, now - lastAllocationTime);
+
+    long ts = currentTs.get();
+    long size = (ts - tsAtLastAllocation) * BLOCK_TIME / elapsed;
+    // grow gradually so that a short burst does not cause a huge allocation
+    size = Math.min(size, blockSize * 2);
+    size = Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, size));
 
-    maxTs = newMax;
+    tsAtLastAllocation = ts;
+    lastAllocationTime = now;
 
+    return size;
   }
-  
+
+  private boolean isRunningLow() {
+    return maxTs - currentTs.get() < blockSize / 2;
+  }
+
+  private synchronized void requestAllocation() {
+    if (!allocationRequested) {
+      allocationRequested = true;
+      notifyAll();
+    }
+  }
+
+  /**
+   * Called after an ambiguous failure to extend the ceiling, such as a connection loss, when the retry finds the ceiling's version changed. The earlier
+   * attempt may have been applied. Since this server's candidate node still exists no other oracle can have become leader, so if the ceiling holds exactly
+   * what was attempted it was written by this server.
+   */
+  private boolean wasAllocated(long attemptedMax) throws Exception {
+    String electionPath = config.getZookeeperRoot() + Constants.Zookeeper.ORACLE_ELECTION + "/" + electionNode;
+    Stat electionStat = zk.exists(electionPath, false);
+    if (electionStat == null || electionStat.getEphemeralOwner() != zk.getSessionId())
+      return false;
+
+    Stat stat = new Stat();
+    byte[] d = zk.getData(config.getZookeeperRoot() + Constants.Zookeeper.TIMESTAMP, null, stat);
+    if (stat.getVersion() != maxTsVersion + 1 || Long.parseLong(new String(d, "UTF-8")) != attemptedMax)
+      return false;
+
+    maxTsVersion = stat.getVersion();
+    return true;
+  }
+
+  private class TimestampAllocator implements Runnable {
+    @Override
+    public void run() {
+      int failures = 0;
+      // the ceiling written by an attempt that failed in a way that leaves its outcome unknown
+      long attemptedMax = -1;
+
+      try {
+        while (true) {
+          long size;
+          long oldMax;
+
+          synchronized (OracleServer.this) {
+            while (!allocationRequested && leader)
+              OracleServer.this.wait();
+            
+            if (!leader)
+              return;
+            
+            size = computeBlockSize();
+            oldMax = maxTs;
+          }
+          
+          // only this thread modifies maxTs while the server is leader, so its safe to talk to zookeeper w/o holding the lock
+          long newMax;
+          try {
+            newMax = allocateTimestamps(size);
+          } catch (KeeperException.BadVersionException e) {
+            if (attemptedMax == -1 || !wasAllocated(attemptedMax)) {
+              // another oracle has fenced this one
+              stepDown("timestamp ceiling was changed by another oracle");
+              return;
+            }
+            newMax = attemptedMax;
+          } catch (InterruptedException e) {
+            throw e;
+          } catch (Exception e) {
+            failures++;
+            attemptedMax = oldMax + size;
+            log.warn("Failed to allocate timestamps, will retry (failures : " + failures + ")", e);
+
+            synchronized (OracleServer.this) {
+              // requests that do not fit in the current block fail until the retry, rather than waiting on zookeeper indefinitely
+              allocationError = e;
+              OracleServer.this.notifyAll();
+
+              // back off, but stop waiting if leadership is lost
+              long backoff = Math.min(MAX_RETRY_BACKOFF, MIN_RETRY_BACKOFF << Math.min(failures, 10));
+              long deadline = System.currentTimeMillis() + backoff;
+              long remaining = backoff;
+              while (leader && remaining > 0) {
+                OracleServer.this.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+              }
+
+              allocationError = null;
+              allocationRequested = true;
+            }
+            continue;
+          }
+
+          failures = 0;
+          attemptedMax = -1;
+
+          synchronized (OracleServer.this) {
+            if (!leader)
+              return;
+
+            if (maxTs != oldMax)
+              throw new IllegalStateException("max timestamp changed concurrently " + oldMax + " " + maxTs);
+            
+            maxTs = newMax;
+            blockSize = size;
+            allocations++;
+            // a burst may have already consumed a lot of the new block
+            allocationRequested = isRunningLow();
+            OracleServer.this.notifyAll();
+          }
+          
+          log.debug("Allocated timestamps up to " + newMax + " block size " + size);
+        }
+      } catch (Exception e) {
+        // only unexpected errors get here, leading without an allocator would fail every request so rejoin the election with a new session
+        log.error("Timestamp allocator failed", e);
+        stepDown("timestamp allocator failed");
+        electionChanged(true);
+      }
+    }
+  }
+
+  /**
+   * Called when the current block does not have room for a request. Waits for the allocator to extend the block.
+   */
+  private synchronized boolean waitForAllocation(int num) throws Exception {
+    while (num + currentTs.get() >= maxTs) {
+      // the allocator should usually stay ahead of demand, so only expect to get here when there is a sudden increase in demand
+      if (allocationError != null)
+        throw allocationError;
+      if (!leader)
+        return false;
+      
+      requestAllocation();
+      
+      long t1 = System.currentTimeMillis();
+      wait();
+      allocationWaitTime += System.currentTimeMillis() - t1;
+    }
+
+    return true;
+  }
+
   @Override
-  public synchronized long getTimestamps(String id, int num) throws TException {
+  public long getTimestamps(String id, int num) throws TException {
     
-    if (!started)
-      throw new IllegalStateException();
+    long startTerm = term;
+
+    if (!leader)
+      return NOT_LEADER;
 
     if (!id.equals(config.getAccismusInstanceID())) {
-      throw new IllegalArgumentException();
+      throw new TException("unexpected instance id " + id);
     }
 
     try {
-      while (num + currentTs >= maxTs) {
-        allocateTimestamp();
+      while (true) {
+        long ts = currentTs.get();
+        
+        if (num + ts < maxTs) {
+          if (currentTs.compareAndSet(ts, ts + num)) {
+            // leadership may have been lost while this thread was issuing, in which case a new leader may already be issuing from the ceiling. If this server
+            // has since become leader again, the timestamps were taken from the previous term's block and may be lower than ones another leader issued.
+            if (!leader || term != startTerm)
+              return NOT_LEADER;
+
+            if (!allocationRequested && isRunningLow())
+              requestAllocation();
+            
+            return ts;
+          }
+        } else if (!waitForAllocation(num)) {
+          return NOT_LEADER;
+        }
       }
-      
-      long tmp = currentTs;
-      currentTs += num;
-      return tmp;
     } catch (Exception e) {
       throw new TException(e);
     }
   }
   
+  /**
+   * @return the size of the most recently allocated block of timestamps
+   */
+  public long getBlockSize() {
+    return blockSize;
+  }
+  
+  /**
+   * @return the total time in milliseconds that requests have spent waiting on timestamps to be allocated from zookeeper
+   */
+  public synchronized long getAllocationWaitTime() {
+    return allocationWaitTime;
+  }
+  
+  /**
+   * @return the number of times timestamps were allocated from zookeeper
+   */
+  public synchronized long getAllocations() {
+    return allocations;
+  }
+
+  /**
+   * @return true if this server is currently issuing timestamps
+   */
+  public boolean isLeader() {
+    return leader;
+  }
+
+  private class OracleWatcher implements Watcher {
+    @Override
+    public void process(WatchedEvent event) {
+      if (event.getType() == EventType.None) {
+        switch (event.getState()) {
+          case Disconnected:
+            // can not tell if the session will expire, so stop issuing before a standby could take over
+            stepDown("disconnected from zookeeper");
+            break;
+          case SyncConnected:
+            electionChanged(false);
+            break;
+          case Expired:
+            stepDown("zookeeper session expired");
+            electionChanged(true);
+            break;
+          default:
+            break;
+        }
+      } else if (event.getType() == EventType.NodeDeleted) {
+        electionChanged(false);
+      }
+    }
+  }
+
+  private synchronized void electionChanged(boolean expired) {
+    electionCheckNeeded = true;
+    sessionExpired |= expired;
+    notifyAll();
+  }
+
+  private void stepDown(String reason) {
+    synchronized (this) {
+      if (!leader)
+        return;
+      leader = false;
+      notifyAll();
+    }
+    log.warn("No longer the oracle leader : " + reason);
+  }
+
+  private class ElectionRunner implements Runnable {
+    @Override
+    public void run() {
+      while (true) {
+        boolean expired;
+        try {
+          synchronized (OracleServer.this) {
+            while (!electionCheckNeeded && running)
+              OracleServer.this.wait();
+
+            if (!running)
+              return;
+
+            electionCheckNeeded = false;
+            expired = sessionExpired;
+            sessionExpired = false;
+          }
+
+          if (expired)
+            joinElection();
+          checkLeadership();
+        } catch (InterruptedException e) {
+          log.warn("Oracle election thread interrupted", e);
+          return;
+        } catch (Exception e) {
+          log.warn("Failed to check oracle leadership, will retry", e);
+          UtilWaitThread.sleep(1000);
+          electionChanged(false);
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates a new zookeeper session and a candidate node for this server.
+   */
+  private void joinElection() throws Exception {
+    if (zk != null)
+      zk.close();
+
+    zk = new ZooKeeper(config.getConnector().getInstance().getZooKeepers(), config.getIntProperty(AccismusProperties.ORACLE_ZOOKEEPER_TIMEOUT_PROP),
+        new OracleWatcher());
+
+    String electionDir = config.getZookeeperRoot() + Constants.Zookeeper.ORACLE_ELECTION;
+    try {
+      // instances initialized before oracle election existed will not have this node
+      zk.create(electionDir, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    } catch (KeeperException.NodeExistsException e) {}
+
+    electionNode = zk.create(electionDir + "/candidate-", address.getBytes("UTF-8"), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+    electionNode = electionNode.substring(electionNode.lastIndexOf('/') + 1);
+  }
+
+  /**
+   * Becomes leader if this server's candidate node is first, otherwise watches the candidate just ahead of it so only one standby wakes up when a candidate
+   * goes away.
+   */
+  private boolean checkLeadership() throws Exception {
+    String electionDir = config.getZookeeperRoot() + Constants.Zookeeper.ORACLE_ELECTION;
+
+    while (true) {
+      List<String> candidates = zk.getChildren(electionDir, false);
+      Collections.sort(candidates);
+
+      int index = candidates.indexOf(electionNode);
+      if (index < 0)
+        throw new IllegalStateException("candidate node missing " + electionNode);
+
+      if (index == 0) {
+        becomeLeader();
+        return true;
+      }
+
+      if (zk.exists(electionDir + "/" + candidates.get(index - 1), true) != null) {
+        log.info("Standing by for oracle leadership, waiting on " + candidates.get(index - 1));
+        return false;
+      }
+    }
+  }
+
+  private void becomeLeader() throws Exception {
+    if (leader)
+      return;
+
+    // an allocator from a previous term will exit because leader is false
+    if (allocatorThread != null)
+      allocatorThread.join();
+
+    Stat stat = new Stat();
+    byte[] d = zk.getData(config.getZookeeperRoot() + Constants.Zookeeper.TIMESTAMP, null, stat);
+
+    synchronized (this) {
+      // the previous leader never issued at or above the ceiling, and once this server changes the ceiling's version the previous leader can not extend its
+      // block
+      maxTs = Long.parseLong(new String(d, "UTF-8"));
+      currentTs.set(maxTs);
+      maxTsVersion = stat.getVersion();
+
+      // this is the only time a request should have to wait on zookeeper
+      blockSize = MIN_BLOCK_SIZE;
+      tsAtLastAllocation = maxTs;
+      lastAllocationTime = System.currentTimeMillis();
+      maxTs = allocateTimestamps(blockSize);
+      allocationRequested = false;
+      allocationError = null;
+    }
+
+    advertise();
+
+    synchronized (this) {
+      term++;
+      leader = true;
+    }
+
+    allocatorThread = new Thread(new TimestampAllocator(), "oracle-allocator");
+    allocatorThread.setDaemon(true);
+    allocatorThread.start();
+
+    log.info("Oracle leader listening " + address + " issuing timestamps from " + currentTs.get());
+  }
+
+  /**
+   * Points clients at this server, they watch this node.
+   */
+  private void advertise() throws Exception {
+    String path = config.getZookeeperRoot() + Constants.Zookeeper.ORACLE_SERVER;
+    byte[] data = address.getBytes("UTF-8");
+
+    while (true) {
+      try {
+        zk.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+        return;
+      } catch (KeeperException.NodeExistsException e) {
+        Stat stat = zk.exists(path, false);
+        if (stat == null)
+          continue;
+
+        if (stat.getEphemeralOwner() == zk.getSessionId()) {
+          zk.setData(path, data, -1);
+          return;
+        }
+
+        // left by a previous leader whose session has not yet gone away, its candidate node is gone so it is no longer leader
+        try {
+          zk.delete(path, stat.getVersion());
+        } catch (KeeperException.NoNodeException nne) {}
+      }
+    }
+  }
+
   private InetSocketAddress startServer() throws TTransportException {
     
-    // TODO pick port and/or make configurable
-    InetSocketAddress addr = new InetSocketAddress(9913);
+    InetSocketAddress addr = new InetSocketAddress(config.getIntProperty(AccismusProperties.ORACLE_PORT_PROP));
     
     TNonblockingServerSocket socket = new TNonblockingServerSocket(addr);
     
@@ -118,35 +552,57 @@ public class OracleServer implements OracleService.Iface {
     
   }
   
+  /**
+   * Starts serving if this server wins leadership, otherwise returns after registering as a standby.
+   */
   public synchronized void start() throws Exception {
-    if (started)
+    if (running)
       throw new IllegalStateException();
 
-    this.zk = new ZooKeeper(config.getConnector().getInstance().getZooKeepers(), 30000, null);
-
+    // a standby listens too, so it can serve as soon as it takes over
     InetSocketAddress addr = startServer();
+    address = addr.getHostName() + ":" + addr.getPort();
 
-    byte[] d = zk.getData(config.getZookeeperRoot() + Constants.Zookeeper.TIMESTAMP, null, null);
-    currentTs = maxTs = Long.parseLong(new String(d));
+    joinElection();
 
-    zk.create(config.getZookeeperRoot() + Constants.Zookeeper.ORACLE_SERVER, (addr.getHostName() + ":" + addr.getPort()).getBytes(),
-        ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+    running = true;
 
-    // TODO use zoolock or curator
+    if (!checkLeadership())
+      log.info("Started standby oracle " + address);
 
-    log.info("Listening " + addr);
-
-    started = true;
+    electionThread = new Thread(new ElectionRunner(), "oracle-election");
+    electionThread.setDaemon(true);
+    electionThread.start();
   }
 
   public void stop() throws Exception {
-    if (started) {
+    if (running) {
+      synchronized (this) {
+        running = false;
+        notifyAll();
+      }
+      electionThread.join();
+
+      boolean wasLeader = leader;
+      stepDown("stopping");
+
       server.stop();
       serverThread.join();
-      // TODO use zoolock or curator
-      zk.delete(config.getZookeeperRoot() + Constants.Zookeeper.ORACLE_SERVER, -1);
+      if (allocatorThread != null)
+        allocatorThread.join();
+
+      if (wasLeader) {
+        String path = config.getZookeeperRoot() + Constants.Zookeeper.ORACLE_SERVER;
+        Stat stat = zk.exists(path, false);
+        if (stat != null && stat.getEphemeralOwner() == zk.getSessionId()) {
+          try {
+            zk.delete(path, stat.getVersion());
+          } catch (KeeperException.NoNodeException e) {}
+        }
+      }
+
       zk.close();
-      started = false;
+      zk = null;
     }
   }
 
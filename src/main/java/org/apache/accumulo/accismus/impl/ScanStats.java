@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.accismus.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scan statistics for all snapshots using a {@link Configuration}.
+ */
+public class ScanStats {
+  private AtomicLong scans = new AtomicLong(0);
+  private AtomicLong readCommittedScans = new AtomicLong(0);
+
+  void scanStarted(boolean readCommitted) {
+    scans.incrementAndGet();
+    if (readCommitted)
+      readCommittedScans.incrementAndGet();
+  }
+
+  public long getScans() {
+    return scans.get();
+  }
+
+  /**
+   * @return the number of scans that passed over locks instead of waiting on them
+   */
+  public long getReadCommittedScans() {
+    return readCommittedScans.get();
+  }
+
+  public String toString() {
+    return String.format("scans:%,d read committed scans:%,d", getScans(), getReadCommittedScans());
+  }
+}
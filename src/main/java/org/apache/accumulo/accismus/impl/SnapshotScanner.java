@@ -16,27 +16,35 @@
  */
 package org.apache.accumulo.accismus.impl;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 import org.apache.accumulo.accismus.api.Column;
 import org.apache.accumulo.accismus.api.ScannerConfiguration;
+import org.apache.accumulo.accismus.api.config.AccismusProperties;
 import org.apache.accumulo.accismus.api.exceptions.StaleScanException;
 import org.apache.accumulo.accismus.impl.iterators.PrewriteIterator;
 import org.apache.accumulo.accismus.impl.iterators.SnapshotIterator;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.BatchWriter;
-import org.apache.accumulo.core.client.BatchWriterConfig;
 import org.apache.accumulo.core.client.ConditionalWriter;
 import org.apache.accumulo.core.client.ConditionalWriter.Status;
 import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.client.MutationsRejectedException;
 import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.TableNotFoundException;
-import org.apache.accumulo.core.data.ArrayByteSequence;
 import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Condition;
 import org.apache.accumulo.core.data.ConditionalMutation;
@@ -45,8 +53,8 @@ import org.apache.accumulo.core.data.Mutation;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.security.ColumnVisibility;
-import org.apache.accumulo.core.util.UtilWaitThread;
 import org.apache.commons.lang.mutable.MutableLong;
+import org.apache.log4j.Logger;
 
 
 /**
@@ -54,10 +62,18 @@ import org.apache.commons.lang.mutable.MutableLong;
  */
 public class SnapshotScanner implements Iterator<Entry<Key,Value>> {
 
+  private static Logger log = Logger.getLogger(SnapshotScanner.class);
+
   private long startTs;
   private Iterator<Entry<Key,Value>> iterator;
   private Entry<Key,Value> next;
   private ScannerConfiguration config;
+  // entries read from the scanner but not returned yet, in key order
+  private ArrayDeque<Entry<Key,Value>> buffer = new ArrayDeque<Entry<Key,Value>>();
+  // locked columns in the buffer whose locks were resolved while reading ahead, mapped to the column as read again. A null value is a column that no longer
+  // exists.
+  private HashMap<Key,Entry<Key,Value>> rereadLocks = new HashMap<Key,Entry<Key,Value>>();
+  private int readAhead;
 
   private Configuration aconfig;
 
@@ -70,24 +86,34 @@ public class SnapshotScanner implements Iterator<Entry<Key,Value>> {
     this.aconfig = aconfig;
     this.config = config;
     this.startTs = startTs;
+    this.readAhead = aconfig.getIntProperty(AccismusProperties.SCANNER_READ_AHEAD_PROP);
+    
+    aconfig.getScanStats().scanStarted(config.isReadCommitted());
+    if (config.isReadCommitted())
+      log.debug("Read committed scan of " + config.getRange() + " at " + startTs);
     
-    setUpIterator();
+    this.iterator = createIterator(config);
   }
   
-  private void setUpIterator() {
+  private IteratorSetting createIteratorSetting(ScannerConfiguration sc) {
+    IteratorSetting iterConf = new IteratorSetting(10, SnapshotIterator.class);
+    SnapshotIterator.setSnaptime(iterConf, startTs);
+    if (sc.isReadCommitted())
+      SnapshotIterator.setReadCommitted(iterConf, true);
+    return iterConf;
+  }
+
+  private Iterator<Entry<Key,Value>> createIterator(ScannerConfiguration sc) {
     Scanner scanner;
     try {
       scanner = aconfig.getConnector().createScanner(aconfig.getTable(), aconfig.getAuthorizations());
     } catch (TableNotFoundException e) {
       throw new RuntimeException(e);
     }
-    config.configure(scanner);
-    
-    IteratorSetting iterConf = new IteratorSetting(10, SnapshotIterator.class);
-    SnapshotIterator.setSnaptime(iterConf, startTs);
-    scanner.addScanIterator(iterConf);
+    sc.configure(scanner);
+    scanner.addScanIterator(createIteratorSetting(sc));
     
-    this.iterator = scanner.iterator();
+    return scanner.iterator();
   }
   
   public boolean hasNext() {
@@ -109,58 +135,22 @@ public class SnapshotScanner implements Iterator<Entry<Key,Value>> {
   }
   
   public Entry<Key,Value> getNext() {
-    
-    long waitTime = INITIAL_WAIT_TIME;
-    long firstSeen = -1;
-
-    mloop: while (true) {
-      // its possible a next could exist then be rolled back
-      if (!iterator.hasNext())
+    while (true) {
+      if (buffer.isEmpty() && !fillBuffer())
         return null;
 
-      Entry<Key,Value> entry = iterator.next();
-
-      byte[] cf = entry.getKey().getColumnFamilyData().toArray();
-      byte[] cq = entry.getKey().getColumnQualifierData().toArray();
+      Entry<Key,Value> entry = buffer.removeFirst();
       long colType = entry.getKey().getTimestamp() & ColumnUtil.PREFIX_MASK;
 
       if (colType == ColumnUtil.LOCK_PREFIX) {
-        // TODO do read ahead while waiting for the lock
-        
-        boolean resolvedLock = false;
-
-        if (firstSeen == -1) {
-          firstSeen = System.currentTimeMillis();
-          
-          // the first time a lock is seen, try to resolve in case the transaction is complete, but this column is still locked.
-          resolvedLock = resolveLock(entry, false);
-        }
-
-        if (!resolvedLock) {
-          UtilWaitThread.sleep(waitTime);
-          waitTime = Math.min(MAX_WAIT_TIME, waitTime * 2);
-        
-          if (System.currentTimeMillis() - firstSeen > ROLLBACK_TIME) {
-            // try to abort the transaction
-            resolveLock(entry, true);
-          }
-        }
-
-        Key k = entry.getKey();
-        Key start = new Key(k.getRowData().toArray(), cf, cq, k.getColumnVisibilityData().toArray(), Long.MAX_VALUE);
-        
-        try {
-          config = (ScannerConfiguration) config.clone();
-        } catch (CloneNotSupportedException e) {
-          throw new RuntimeException(e);
-        }
-        config.setRange(new Range(start, true, config.getRange().getEndKey(), config.getRange().isEndKeyInclusive()));
-        setUpIterator();
+        entry = waitForLock(entry);
+        // its possible a next could exist then be rolled back
+        if (entry == null)
+          continue;
+        colType = entry.getKey().getTimestamp() & ColumnUtil.PREFIX_MASK;
+      }
 
-        continue mloop;
-      } else if (colType == ColumnUtil.DATA_PREFIX) {
-        waitTime = INITIAL_WAIT_TIME;
-        firstSeen = -1;
+      if (colType == ColumnUtil.DATA_PREFIX) {
         return entry;
       } else if (colType == ColumnUtil.WRITE_PREFIX) {
         if (WriteValue.isTruncated(entry.getValue().get())) {
@@ -173,14 +163,206 @@ public class SnapshotScanner implements Iterator<Entry<Key,Value>> {
       }
     }
   }
+
+  /**
+   * Reads entries into the buffer. When a locked column is found, reading continues past it until the read ahead limit is reached. Locks of finished
+   * transactions found while reading ahead are resolved together and their columns are read again with one batch scan. Locks of transactions still running
+   * are waited on by this scanner's thread when they are reached.
+   * 
+   * @return false if there is nothing left to read
+   */
+  private boolean fillBuffer() {
+    ArrayList<Entry<Key,Value>> locks = new ArrayList<Entry<Key,Value>>();
+
+    while (iterator.hasNext()) {
+      Entry<Key,Value> entry = iterator.next();
+      buffer.add(entry);
+
+      if ((entry.getKey().getTimestamp() & ColumnUtil.PREFIX_MASK) == ColumnUtil.LOCK_PREFIX)
+        locks.add(entry);
+
+      if (locks.isEmpty() || buffer.size() >= readAhead)
+        break;
+    }
+
+    if (locks.size() > 0)
+      rereadLocks.putAll(readColumns(resolveLocks(locks)));
+
+    return !buffer.isEmpty();
+  }
+
+  /**
+   * Resolves locks whose transactions are committed or rolled back. The status of all the transactions is read at once, and the resulting commits and rollbacks
+   * are written with one flush.
+   * 
+   * @return the keys of the locks that were resolved
+   */
+  private Set<Key> resolveLocks(List<Entry<Key,Value>> locks) {
+    Map<Entry<Key,Value>,TxRef> lockTxs = new HashMap<Entry<Key,Value>,TxRef>();
+    for (Entry<Key,Value> lock : locks) {
+      LockValue lv = new LockValue(lock.getKey(), lock.getValue().get());
+      lockTxs.put(lock, new TxRef(lv.getPrimaryRow(), lv.getPrimaryColumn(), lock.getKey().getTimestamp() & ColumnUtil.TIMESTAMP_MASK));
+    }
+
+    Map<TxRef,TxInfo> statuses = TxStatus.getTransactionStatuses(aconfig, lockTxs.values());
+
+    HashSet<Key> resolved = new HashSet<Key>();
+    ArrayList<Mutation> mutations = new ArrayList<Mutation>();
+
+    for (Entry<Key,Value> lock : locks) {
+      TxRef tx = lockTxs.get(lock);
+      TxInfo info = statuses.get(tx);
+
+      if (info.getStatus() == TxStatus.COMMITTED) {
+        checkCommitTs(tx, info.getCommitTs());
+        mutations.add(createCommitMutation(lock, tx.getStartTs(), info.getCommitTs()));
+        resolved.add(lock.getKey());
+      } else if (info.getStatus() == TxStatus.ROLLED_BACK) {
+        mutations.add(createRollbackMutation(lock.getKey(), tx.getStartTs()));
+        resolved.add(lock.getKey());
+      }
+    }
+
+    write(mutations);
+
+    return resolved;
+  }
+
+  private static void checkCommitTs(TxRef tx, long commitTs) {
+    if (commitTs < tx.getStartTs()) {
+      throw new IllegalStateException("bad commitTs : " + tx + " (" + commitTs + "<" + tx.getStartTs() + ")");
+    }
+  }
+
+  private static boolean isLock(Entry<Key,Value> entry) {
+    return (entry.getKey().getTimestamp() & ColumnUtil.PREFIX_MASK) == ColumnUtil.LOCK_PREFIX;
+  }
+
+  /**
+   * Waits for a locked column to be unlocked, trying to resolve the lock and eventually aborting the transaction that holds it. A lock whose transactor is
+   * gone is aborted right away, and a lock whose transactor is alive is aborted after the much longer transactor rollback time. Returns the column as read
+   * once unlocked, or null if the column no longer exists.
+   */
+  private Entry<Key,Value> waitForLock(Entry<Key,Value> entry) {
+    if (rereadLocks.containsKey(entry.getKey())) {
+      Entry<Key,Value> current = rereadLocks.remove(entry.getKey());
+      if (current == null || !isLock(current))
+        return current;
+      // locked again by another transaction
+      entry = current;
+    }
+
+    long waitTime = INITIAL_WAIT_TIME;
+    long firstSeen = System.currentTimeMillis();
+
+    // the first time a lock is seen, try to resolve in case the transaction is complete, but this column is still locked.
+    boolean resolvedLock = resolveLock(entry, false);
+
+    while (true) {
+      if (!resolvedLock) {
+        ByteSequence owner = new LockValue(entry.getKey(), entry.getValue().get()).getTransactor();
+
+        Transactor.Status status = owner == null ? Transactor.Status.UNKNOWN : aconfig.getTransactor().getStatus(owner);
+
+        if (status == Transactor.Status.DEAD) {
+          // the process that wrote the lock is gone, so the transaction will never finish
+          resolvedLock = resolveLock(entry, true);
+        }
+
+        if (!resolvedLock) {
+          try {
+            Thread.sleep(waitTime);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+          }
+          waitTime = Math.min(MAX_WAIT_TIME, waitTime * 2);
+
+          // a live owner's transaction is most likely only slow, but it may have failed without the process exiting
+          long rollbackTime = status == Transactor.Status.ALIVE ? aconfig.getLongProperty(AccismusProperties.TRANSACTOR_ROLLBACK_TIME_PROP) : ROLLBACK_TIME;
+          if (System.currentTimeMillis() - firstSeen > rollbackTime) {
+            // try to abort the transaction
+            resolveLock(entry, true);
+          }
+        }
+      }
+
+      Entry<Key,Value> current = readColumn(entry.getKey());
+      if (current == null || !isLock(current))
+        return current;
+
+      entry = current;
+      resolvedLock = false;
+    }
+  }
+
+  /**
+   * Reads a single column again, as of this scanner's start timestamp.
+   */
+  private Entry<Key,Value> readColumn(Key k) {
+    ScannerConfiguration sc;
+    try {
+      sc = (ScannerConfiguration) config.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new RuntimeException(e);
+    }
+    sc.setRange(Range.exact(k.getRow(), k.getColumnFamily(), k.getColumnQualifier(), k.getColumnVisibility()));
+
+    Iterator<Entry<Key,Value>> iter = createIterator(sc);
+    return iter.hasNext() ? iter.next() : null;
+  }
+
+  private static Key columnKey(Key k) {
+    Key ck = new Key(k);
+    ck.setTimestamp(Long.MAX_VALUE);
+    return ck;
+  }
+
+  /**
+   * Reads the columns of many locks again with one batch scanner, as of this scanner's start timestamp.
+   * 
+   * @return the column read for each lock key, null for columns that no longer exist
+   */
+  private Map<Key,Entry<Key,Value>> readColumns(Collection<Key> lockKeys) {
+    Map<Key,Entry<Key,Value>> ret = new HashMap<Key,Entry<Key,Value>>();
+    if (lockKeys.isEmpty())
+      return ret;
+
+    Map<Key,Key> columns = new HashMap<Key,Key>();
+    List<Range> ranges = new ArrayList<Range>(lockKeys.size());
+    for (Key k : lockKeys) {
+      columns.put(columnKey(k), k);
+      ranges.add(Range.exact(k.getRow(), k.getColumnFamily(), k.getColumnQualifier(), k.getColumnVisibility()));
+      ret.put(k, null);
+    }
+
+    BatchScanner bs;
+    try {
+      bs = aconfig.getConnector().createBatchScanner(aconfig.getTable(), aconfig.getAuthorizations(),
+          aconfig.getIntProperty(AccismusProperties.SCANNER_LOCK_THREADS_PROP));
+    } catch (TableNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+
+    try {
+      bs.setRanges(ranges);
+      bs.addScanIterator(createIteratorSetting(config));
+      for (Entry<Key,Value> entry : bs)
+        ret.put(columns.get(columnKey(entry.getKey())), entry);
+    } finally {
+      bs.close();
+    }
+
+    return ret;
+  }
   
   private boolean resolveLock(Entry<Key,Value> entry, boolean abort) {
-    List<ByteSequence> primary = ByteUtil.split(new ArrayByteSequence(entry.getValue().get()));
+    LockValue lv = new LockValue(entry.getKey(), entry.getValue().get());
     
-    ByteSequence prow = primary.get(0);
-    ByteSequence pfam = primary.get(1);
-    ByteSequence pqual = primary.get(2);
-    ByteSequence pvis = primary.get(3);
+    ByteSequence prow = lv.getPrimaryRow();
+    ByteSequence pfam = lv.getPrimaryColumn().getFamily();
+    ByteSequence pqual = lv.getPrimaryColumn().getQualifier();
+    ByteSequence pvis = lv.getPrimaryVisibility();
 
     boolean isPrimary = entry.getKey().getRowData().equals(prow) && entry.getKey().getColumnFamilyData().equals(pfam)
         && entry.getKey().getColumnQualifierData().equals(pqual) && entry.getKey().getColumnVisibilityData().equals(pvis);
@@ -208,35 +390,34 @@ public class SnapshotScanner implements Iterator<Entry<Key,Value>> {
         
         Value lockVal = new Value();
         MutableLong commitTs = new MutableLong(-1);
-        // TODO use cached CV
-        TxStatus txStatus = TxStatus.getTransactionStatus(aconfig, prow, new Column(pfam, pqual).setVisibility(new ColumnVisibility(pvis.toArray())), lockTs,
-            commitTs, lockVal);
+        TxStatus txStatus = TxStatus.getTransactionStatus(aconfig, prow, lv.getPrimaryColumn(), lockTs, commitTs, lockVal);
         
         switch (txStatus) {
           case COMMITTED:
-            if (commitTs.longValue() < lockTs) {
-              throw new IllegalStateException("bad commitTs : " + prow + " " + pfam + " " + pqual + " " + pvis + " (" + commitTs.longValue() + "<" + lockTs
-                  + ")");
-            }
-            commitColumn(entry, lockTs, commitTs.longValue());
+            checkCommitTs(new TxRef(prow, lv.getPrimaryColumn(), lockTs), commitTs.longValue());
+            write(Collections.singletonList(createCommitMutation(entry, lockTs, commitTs.longValue())));
             resolvedLock = true;
             break;
           case LOCKED:
             if (abort) {
               if (rollbackPrimary(prow, pfam, pqual, pvis, lockTs, lockVal.get())) {
-                rollback(entry.getKey(), lockTs);
+                write(Collections.singletonList(createRollbackMutation(entry.getKey(), lockTs)));
                 resolvedLock = true;
               }
             }
             break;
           case ROLLED_BACK:
             // TODO ensure this if ok if there concurrent rollback
-            rollback(entry.getKey(), lockTs);
+            write(Collections.singletonList(createRollbackMutation(entry.getKey(), lockTs)));
             resolvedLock = true;
             break;
           case UNKNOWN:
+            // the primary was never locked, which can happen when primaries and secondaries are prewritten in parallel
             if (abort) {
-              throw new IllegalStateException("can not abort : " + prow + " " + pfam + " " + pqual + " " + pvis + " (" + txStatus + ")");
+              if (rollbackUnlockedPrimary(prow, pfam, pqual, pvis, lockTs)) {
+                write(Collections.singletonList(createRollbackMutation(entry.getKey(), lockTs)));
+                resolvedLock = true;
+              }
             }
             break;
         }
@@ -250,40 +431,34 @@ public class SnapshotScanner implements Iterator<Entry<Key,Value>> {
     return resolvedLock;
   }
 
-  private void commitColumn(Entry<Key,Value> entry, long lockTs, long commitTs) {
-    LockValue lv = new LockValue(entry.getValue().get());
+  private Mutation createCommitMutation(Entry<Key,Value> entry, long lockTs, long commitTs) {
+    LockValue lv = new LockValue(entry.getKey(), entry.getValue().get());
     boolean isTrigger = lv.getObserver().length() > 0;
-    // TODO cache col vis
-    Column col = new Column(entry.getKey().getColumnFamilyData(), entry.getKey().getColumnQualifierData()).setVisibility(entry.getKey()
-        .getColumnVisibilityParsed());
-    Mutation m = new Mutation(entry.getKey().getRowData().toArray());
+    Column col = new Column(entry.getKey().getColumnFamilyData(), entry.getKey().getColumnQualifierData()).setVisibility(VisibilityCache.get(entry.getKey()
+        .getColumnVisibilityData()));
+    Mutation m = new Mutation(ByteUtil.toArray(entry.getKey().getRowData()));
     
     ColumnUtil.commitColumn(isTrigger, false, col, lv.isWrite(), lockTs, commitTs, aconfig.getObservers().keySet(), m);
-    
-    try {
-      // TODO use conditional writer?
-      // TODO use shared batch writer
-      BatchWriter bw = aconfig.getConnector().createBatchWriter(aconfig.getTable(), new BatchWriterConfig());
-      bw.addMutation(m);
-      bw.close();
-    } catch (TableNotFoundException e) {
-      throw new RuntimeException(e);
-    } catch (MutationsRejectedException e) {
-      throw new RuntimeException(e);
-    }
+    return m;
+  }
+
+  private Mutation createRollbackMutation(Key k, long lockTs) {
+    Mutation mut = new Mutation(ByteUtil.toArray(k.getRowData()));
+    mut.put(ByteUtil.toArray(k.getColumnFamilyData()), ByteUtil.toArray(k.getColumnQualifierData()), VisibilityCache.get(k.getColumnVisibilityData()),
+        ColumnUtil.DEL_LOCK_PREFIX | startTs, DelLockValue.encode(lockTs, false, true));
+    return mut;
   }
 
-  private void rollback(Key k, long lockTs) {
-    Mutation mut = new Mutation(k.getRowData().toArray());
-    mut.put(k.getColumnFamilyData().toArray(), k.getColumnQualifierData().toArray(), k.getColumnVisibilityParsed(), ColumnUtil.DEL_LOCK_PREFIX | startTs,
-        DelLockValue.encode(lockTs, false, true));
+  private void write(List<Mutation> mutations) {
+    if (mutations.size() == 0)
+      return;
     
     try {
       // TODO use conditional writer?
-      // TODO use shared batch writer
-      BatchWriter bw = aconfig.getConnector().createBatchWriter(aconfig.getTable(), new BatchWriterConfig());
-      bw.addMutation(mut);
-      bw.close();
+      BatchWriter bw = aconfig.getSharedBatchWriter();
+      bw.addMutations(mutations);
+      // the columns are read again after the locks are resolved
+      bw.flush();
     } catch (TableNotFoundException e) {
       throw new RuntimeException(e);
     } catch (MutationsRejectedException e) {
@@ -293,38 +468,67 @@ public class SnapshotScanner implements Iterator<Entry<Key,Value>> {
 
   boolean rollbackPrimary(ByteSequence prow, ByteSequence pfam, ByteSequence pqual, ByteSequence pvis, long lockTs, byte[] val) throws AccumuloException,
       AccumuloSecurityException {
-    // TODO use cached CV
-    ColumnVisibility cv = new ColumnVisibility(pvis.toArray());
+    ColumnVisibility cv = VisibilityCache.get(pvis);
     
     // TODO avoid conversions to arrays
     // TODO review use of PrewriteIter here
 
     IteratorSetting iterConf = new IteratorSetting(10, PrewriteIterator.class);
     PrewriteIterator.setSnaptime(iterConf, startTs);
-    // TODO cache col vis?
     ConditionalMutation delLockMutation = new ConditionalMutation(prow, new Condition(pfam, pqual).setIterators(iterConf).setVisibility(cv).setValue(val));
     
     // TODO sanity check on lockTs vs startTs
     
-    delLockMutation.put(pfam.toArray(), pqual.toArray(), cv, ColumnUtil.DEL_LOCK_PREFIX | startTs, DelLockValue.encode(lockTs, true, true));
+    delLockMutation.put(ByteUtil.toArray(pfam), ByteUtil.toArray(pqual), cv, ColumnUtil.DEL_LOCK_PREFIX | startTs, DelLockValue.encode(lockTs, true, true));
     
-    ConditionalWriter cw = null;
     try {
-      cw = aconfig.createConditionalWriter();
+      ConditionalWriter cw = aconfig.getSharedConditionalWriter();
       
       // TODO handle other conditional writer cases
       return cw.write(delLockMutation).getStatus() == Status.ACCEPTED;
     } catch (TableNotFoundException e) {
       // TODO Auto-generated catch block
       throw new RuntimeException(e);
-    } finally {
-      if (cw != null)
-        cw.close();
     }
-    
 
   }
 
+  /**
+   * Ensures a transaction can never lock its primary column, so that its secondary locks can be rolled back. This writes a rollback marker for the
+   * transaction on the primary column, using the same check the primary prewrite uses so that it fails if the primary could not be locked anyway.
+   * 
+   * @return true if the primary column can never be locked by the transaction
+   */
+  boolean rollbackUnlockedPrimary(ByteSequence prow, ByteSequence pfam, ByteSequence pqual, ByteSequence pvis, long lockTs) throws AccumuloException,
+      AccumuloSecurityException, TableNotFoundException {
+    ColumnVisibility cv = VisibilityCache.get(pvis);
+    Column pcol = new Column(pfam, pqual).setVisibility(cv);
+    
+    IteratorSetting iterConf = new IteratorSetting(10, PrewriteIterator.class);
+    PrewriteIterator.setSnaptime(iterConf, lockTs);
+    
+    ConditionalMutation delLockMutation = new ConditionalMutation(prow, new Condition(pfam, pqual).setIterators(iterConf).setVisibility(cv));
+    delLockMutation.put(ByteUtil.toArray(pfam), ByteUtil.toArray(pqual), cv, ColumnUtil.DEL_LOCK_PREFIX | startTs, DelLockValue.encode(lockTs, true, true));
+    
+    Status status = aconfig.getSharedConditionalWriter().write(delLockMutation).getStatus();
+    if (status == Status.ACCEPTED)
+      return true;
+    
+    if (status == Status.REJECTED) {
+      // A lock held by another transaction may go away, but a write or rollback marker newer than the lock will always reject the primary prewrite. Check
+      // that the transaction did not lock the primary after seeing the conflict, in which case the transaction status will no longer be unknown.
+      Entry<Key,Value> conflict = ColumnUtil.checkColumn(aconfig, iterConf, prow, pcol);
+      if (conflict != null) {
+        long colType = conflict.getKey().getTimestamp() & ColumnUtil.PREFIX_MASK;
+        if (colType == ColumnUtil.WRITE_PREFIX || colType == ColumnUtil.DEL_LOCK_PREFIX)
+          return TxStatus.getTransactionStatus(aconfig, prow, pcol, lockTs, new MutableLong(-1), null) == TxStatus.UNKNOWN;
+      }
+    }
+    
+    // try again later
+    return false;
+  }
+
   public void remove() {
     iterator.remove();
   }
@@ -2,6 +2,7 @@ package org.apache.accumulo.accismus.impl;
 
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -10,24 +11,27 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.accumulo.accismus.api.Column;
 import org.apache.accumulo.accismus.api.ColumnIterator;
 import org.apache.accumulo.accismus.api.RowIterator;
 import org.apache.accumulo.accismus.api.ScannerConfiguration;
 import org.apache.accumulo.accismus.api.Transaction;
+import org.apache.accumulo.accismus.api.config.AccismusProperties;
 import org.apache.accumulo.accismus.api.exceptions.AlreadyAcknowledgedException;
 import org.apache.accumulo.accismus.api.exceptions.AlreadySetException;
 import org.apache.accumulo.accismus.api.exceptions.CommitException;
 import org.apache.accumulo.accismus.impl.iterators.PrewriteIterator;
+import org.apache.accumulo.accismus.impl.iterators.SnapshotIterator;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.BatchWriter;
-import org.apache.accumulo.core.client.BatchWriterConfig;
 import org.apache.accumulo.core.client.ConditionalWriter;
 import org.apache.accumulo.core.client.ConditionalWriter.Result;
 import org.apache.accumulo.core.client.ConditionalWriter.Status;
-import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.client.MutationsRejectedException;
 import org.apache.accumulo.core.client.TableNotFoundException;
@@ -39,24 +43,34 @@ import org.apache.accumulo.core.data.ConditionalMutation;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
 import org.apache.accumulo.core.data.Range;
-import org.apache.accumulo.core.security.ColumnVisibility;
+import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.util.ArgumentChecker;
 import org.apache.commons.lang.mutable.MutableLong;
+import org.apache.log4j.Logger;
 
 
 public class TransactionImpl implements Transaction {
   
+  private static Logger log = Logger.getLogger(TransactionImpl.class);
+  
   public static final byte[] EMPTY = new byte[0];
   public static final ByteSequence EMPTY_BS = new ArrayByteSequence(EMPTY);
   
   private static final ByteSequence DELETE = new ArrayByteSequence("special delete object");
   
-  private long startTs;
-  private Connector conn;
-  private String table;
+  private long startTs = -1;
+  // the start timestamp is requested when the transaction is created and only waited on when first needed
+  private Future<Long> startTsFuture;
   
   private Map<ByteSequence,Map<Column,ByteSequence>> updates;
+  // set once a read committed scan is done, after which the transaction may not write
+  private boolean readCommitted = false;
   Map<ByteSequence,Set<Column>> columnsRead = new HashMap<ByteSequence,Set<Column>>();
+  // columns read from Accumulo at the start timestamp, null values are columns that did not exist
+  private Map<ByteSequence,Map<Column,ByteSequence>> readCache = new HashMap<ByteSequence,Map<Column,ByteSequence>>();
+  private byte[][] lockValues = new byte[16][];
+  // the transactor written into every lock, null when liveness is not tracked
+  private ByteSequence transactor;
   private ByteSequence observer;
   private ByteSequence triggerRow;
   private Column triggerColumn;
@@ -74,8 +88,6 @@ public class TransactionImpl implements Transaction {
 
   TransactionImpl(Configuration config, ByteSequence triggerRow, Column tiggerColumn, Long startTs) throws Exception {
     this.config = config;
-    this.table = config.getTable();
-    this.conn = config.getConnector();
     this.observedColumns = config.getObservers().keySet();
     this.updates = new HashMap<ByteSequence,Map<Column,ByteSequence>>();
     
@@ -83,7 +95,7 @@ public class TransactionImpl implements Transaction {
     this.triggerColumn = tiggerColumn;
     
     if (startTs == null)
-      this.startTs = OracleClient.getInstance(config).getTimestamp();
+      this.startTsFuture = OracleClient.getInstance(config).getTimestampAsync();
     else {
       if (startTs < 0)
         throw new IllegalArgumentException();
@@ -122,7 +134,6 @@ public class TransactionImpl implements Transaction {
 
   @Override
   public ByteSequence get(ByteSequence row, Column column) throws Exception {
-    // TODO cache? precache?
     return get(row, Collections.singleton(column)).get(column);
   }
   
@@ -136,8 +147,113 @@ public class TransactionImpl implements Transaction {
     return get(new ArrayByteSequence(row), columns);
   }
 
+  /**
+   * Columns set in this transaction are returned as set. Columns already read in this transaction are returned from the read cache, which is consistent
+   * because all reads are at the start timestamp. Only the remaining columns are read from Accumulo.
+   */
   @Override
   public Map<Column,ByteSequence> get(ByteSequence row, Set<Column> columns) throws Exception {
+    if (commitStarted)
+      throw new IllegalStateException("transaction committed");
+
+    Map<Column,ByteSequence> ret = new HashMap<Column,ByteSequence>();
+    Set<Column> toRead = getLocal(row, columns, ret);
+
+    if (toRead != null)
+      cacheReads(row, toRead, readColumns(row, toRead), ret);
+
+    return ret;
+  }
+
+  /**
+   * Reads the columns for many rows, rows that need to be read from Accumulo are read in parallel using a batch scanner. Rows with none of the columns are
+   * not in the returned map.
+   */
+  @Override
+  public Map<ByteSequence,Map<Column,ByteSequence>> get(Collection<ByteSequence> rows, Set<Column> columns) throws Exception {
+    if (commitStarted)
+      throw new IllegalStateException("transaction committed");
+
+    Map<ByteSequence,Map<Column,ByteSequence>> ret = new HashMap<ByteSequence,Map<Column,ByteSequence>>();
+    Map<ByteSequence,Set<Column>> toRead = new HashMap<ByteSequence,Set<Column>>();
+
+    for (ByteSequence row : rows) {
+      Map<Column,ByteSequence> rowRet = new HashMap<Column,ByteSequence>();
+      Set<Column> rowToRead = getLocal(row, columns, rowRet);
+      if (rowToRead != null)
+        toRead.put(row, rowToRead);
+      ret.put(row, rowRet);
+    }
+
+    if (toRead.size() == 1) {
+      Entry<ByteSequence,Set<Column>> entry = toRead.entrySet().iterator().next();
+      cacheReads(entry.getKey(), entry.getValue(), readColumns(entry.getKey(), entry.getValue()), ret.get(entry.getKey()));
+    } else if (toRead.size() > 1) {
+      Map<ByteSequence,Map<Column,ByteSequence>> read = readColumns(toRead);
+      for (Entry<ByteSequence,Set<Column>> entry : toRead.entrySet()) {
+        cacheReads(entry.getKey(), entry.getValue(), read.get(entry.getKey()), ret.get(entry.getKey()));
+      }
+    }
+
+    Iterator<Map<Column,ByteSequence>> iter = ret.values().iterator();
+    while (iter.hasNext())
+      if (iter.next().size() == 0)
+        iter.remove();
+
+    return ret;
+  }
+
+  /**
+   * Adds columns set by this transaction or already read by it to ret.
+   * 
+   * @return columns that must be read from Accumulo, or null if there are none
+   */
+  private Set<Column> getLocal(ByteSequence row, Set<Column> columns, Map<Column,ByteSequence> ret) {
+    Set<Column> toRead = null;
+
+    Map<Column,ByteSequence> rowUpdates = updates.get(row);
+    Map<Column,ByteSequence> rowCache = readCache.get(row);
+
+    for (Column column : columns) {
+      // a null update is the trigger column placeholder, not a write
+      ByteSequence val = rowUpdates == null ? null : rowUpdates.get(column);
+      if (val != null) {
+        if (val != DELETE)
+          ret.put(column, val);
+      } else if (rowCache != null && rowCache.containsKey(column)) {
+        val = rowCache.get(column);
+        if (val != null)
+          ret.put(column, val);
+      } else {
+        if (toRead == null)
+          toRead = new HashSet<Column>();
+        toRead.add(column);
+      }
+    }
+
+    return toRead;
+  }
+
+  private void cacheReads(ByteSequence row, Set<Column> columnsRead, Map<Column,ByteSequence> read, Map<Column,ByteSequence> ret) {
+    Map<Column,ByteSequence> rowCache = readCache.get(row);
+    if (rowCache == null) {
+      rowCache = new HashMap<Column,ByteSequence>();
+      readCache.put(row, rowCache);
+    }
+
+    for (Column column : columnsRead) {
+      // cache absent columns as null
+      ByteSequence val = read.get(column);
+      rowCache.put(column, val);
+      if (val != null)
+        ret.put(column, val);
+    }
+  }
+
+  /**
+   * Reads columns from Accumulo, ignoring any cached reads or updates made in this transaction.
+   */
+  private Map<Column,ByteSequence> readColumns(ByteSequence row, Set<Column> columns) throws Exception {
     // TODO push visibility filtering to server side?
 
     ScannerConfiguration config = new ScannerConfiguration();
@@ -176,14 +292,84 @@ public class TransactionImpl implements Transaction {
     colsRead.addAll(columns);
   }
 
-  // TODO add a get that uses the batch scanner
+  /**
+   * Reads columns for many rows from Accumulo using a batch scanner, ignoring any cached reads or updates made in this transaction. Rows where the batch
+   * scanner sees a lock or a stale read are read again with a {@link SnapshotScanner}, which knows how to handle those.
+   */
+  private Map<ByteSequence,Map<Column,ByteSequence>> readColumns(Map<ByteSequence,Set<Column>> rowColumns) throws Exception {
+    
+    Map<ByteSequence,Map<Column,ByteSequence>> ret = new HashMap<ByteSequence,Map<Column,ByteSequence>>();
+    Set<ByteSequence> needsScanner = new HashSet<ByteSequence>();
+    
+    List<Range> ranges = new ArrayList<Range>(rowColumns.size());
+    Set<Column> allColumns = new HashSet<Column>();
+    for (Entry<ByteSequence,Set<Column>> entry : rowColumns.entrySet()) {
+      ranges.add(new Range(ByteUtil.toText(entry.getKey())));
+      allColumns.addAll(entry.getValue());
+      ret.put(entry.getKey(), new HashMap<Column,ByteSequence>());
+    }
+    
+    BatchScanner bs = config.getConnector().createBatchScanner(config.getTable(), config.getAuthorizations(),
+        config.getIntProperty(AccismusProperties.BATCH_SCANNER_THREADS_PROP));
+    try {
+      bs.setRanges(ranges);
+      for (Column column : allColumns) {
+        bs.fetchColumn(ByteUtil.toText(column.getFamily()), ByteUtil.toText(column.getQualifier()));
+      }
+      
+      IteratorSetting iterConf = new IteratorSetting(10, SnapshotIterator.class);
+      SnapshotIterator.setSnaptime(iterConf, getStartTs());
+      bs.addScanIterator(iterConf);
+      
+      for (Entry<Key,Value> entry : bs) {
+        Key k = entry.getKey();
+        ByteSequence row = k.getRowData();
+        
+        if (needsScanner.contains(row))
+          continue;
+        
+        long colType = k.getTimestamp() & ColumnUtil.PREFIX_MASK;
+        
+        if (colType == ColumnUtil.DATA_PREFIX) {
+          Column col = new Column(k.getColumnFamilyData().toArray(), k.getColumnQualifierData().toArray()).setVisibility(
+              VisibilityCache.get(k.getColumnVisibilityData()));
+          Map<Column,ByteSequence> rowRet = ret.get(row);
+          if (rowColumns.get(row).contains(col))
+            rowRet.put(col, new ArrayByteSequence(entry.getValue().get()));
+        } else {
+          // the row has a lock or the read is stale
+          needsScanner.add(row);
+        }
+      }
+    } finally {
+      bs.close();
+    }
+    
+    for (Entry<ByteSequence,Set<Column>> entry : rowColumns.entrySet()) {
+      if (needsScanner.contains(entry.getKey())) {
+        ret.put(entry.getKey(), readColumns(entry.getKey(), entry.getValue()));
+      } else {
+        // only update columns read after successful read
+        updateColumnsRead(entry.getKey(), entry.getValue());
+      }
+    }
+    
+    return ret;
+  }
 
   @Override
   public RowIterator get(ScannerConfiguration config) throws Exception {
     if (commitStarted)
       throw new IllegalStateException("transaction committed");
 
-    return new RowIteratorImpl(new SnapshotScanner(this.config, config, startTs));
+    if (config.isReadCommitted()) {
+      // writes based on a read committed scan could overwrite a transaction that committed before this one started w/o a write conflict
+      if (updates.size() > 0)
+        throw new IllegalStateException("read committed scans are not allowed in transactions that write");
+      readCommitted = true;
+    }
+
+    return new RowIteratorImpl(new SnapshotScanner(this.config, config, getStartTs()));
   }
   
   @Override
@@ -203,6 +389,9 @@ public class TransactionImpl implements Transaction {
     if (commitStarted)
       throw new IllegalStateException("transaction committed");
 
+    if (readCommitted)
+      throw new IllegalStateException("transactions that did a read committed scan can not write");
+
     ArgumentChecker.notNull(row, col, value);
     
     if (col.getFamily().equals(Constants.NOTIFY_CF)) {
@@ -257,14 +446,41 @@ public class TransactionImpl implements Transaction {
       cm.addCondition(cond);
     
     if (val != null && val != DELETE)
-      cm.put(col.getFamily().toArray(), col.getQualifier().toArray(), col.getVisibility(), ColumnUtil.DATA_PREFIX | startTs, val.toArray());
+      ColumnUtil.put(cm, col, ColumnUtil.DATA_PREFIX | startTs, ByteUtil.toArray(val));
     
-    cm.put(col.getFamily().toArray(), col.getQualifier().toArray(), col.getVisibility(), ColumnUtil.LOCK_PREFIX | startTs,
-        LockValue.encode(primaryRow, primaryColumn, val != null, isTrigger ? observer : EMPTY_BS));
+    ByteSequence lockRow = row == null ? new ArrayByteSequence(cm.getRow()) : row;
+    ColumnUtil.put(cm, col, ColumnUtil.LOCK_PREFIX | startTs, getLockValue(lockRow, col, primaryRow, primaryColumn, val != null, isTrigger));
     
     return cm;
   }
   
+  /**
+   * Lock values only differ by whether the column is written, whether it is the trigger and whether the lock shares its row or column with the primary, so
+   * each is encoded once and shared by every column locked. A transaction only commits once, so the primary never changes.
+   */
+  byte[] getLockValue(ByteSequence row, Column col, ByteSequence primaryRow, Column primaryColumn, boolean isWrite, boolean isTrigger) {
+    int i = (isWrite ? 1 : 0) | (isTrigger ? 2 : 0) | (row.equals(primaryRow) ? 4 : 0) | (col.equals(primaryColumn) ? 8 : 0);
+    if (lockValues[i] == null) {
+      if (config.getProperties().getProperty(AccismusProperties.LOCK_FORMAT_PROP).equals(AccismusProperties.LOCK_FORMAT_OLD)) {
+        // clients that are not upgraded yet only read the old format, which has no room for the transactor
+        if (config.getBooleanProperty(AccismusProperties.TRANSACTOR_ENABLED_PROP))
+          throw new IllegalStateException("transactor liveness requires the " + AccismusProperties.LOCK_FORMAT_NEW + " lock format");
+        lockValues[i] = LockValue.encodeOld(primaryRow, primaryColumn, isWrite, isTrigger ? observer : EMPTY_BS);
+        return lockValues[i];
+      }
+
+      if (transactor == null && config.getBooleanProperty(AccismusProperties.TRANSACTOR_ENABLED_PROP)) {
+        try {
+          transactor = config.getTransactor().getId();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+      lockValues[i] = LockValue.encode(row, col, primaryRow, primaryColumn, isWrite, isTrigger ? observer : EMPTY_BS, transactor);
+    }
+    return lockValues[i];
+  }
+
   private ConditionalMutation prewrite(ByteSequence row, Column col, ByteSequence val, ByteSequence primaryRow, Column primaryColumn, boolean isTriggerRow) {
     return prewrite(null, row, col, val, primaryRow, primaryColumn, isTriggerRow);
   }
@@ -279,6 +495,10 @@ public class TransactionImpl implements Transaction {
     private ByteSequence prow;
     private Column pcol;
     private ByteSequence pval;
+    // all updates are on the primary row, so the primary's conditional mutations carry every column
+    private boolean singleRow = false;
+    // status of the primary when it was prewritten in the same batch as the secondaries
+    private Status primaryStatus;
 
     private HashSet<ByteSequence> acceptedRows;
     private Map<ByteSequence,Set<Column>> rejected = new HashMap<ByteSequence,Set<Column>>();
@@ -327,6 +547,8 @@ public class TransactionImpl implements Transaction {
       throw new IllegalStateException();
 
     commitStarted = true;
+    
+    getStartTs();
 
     // get a primary column
     cd.prow = primRow;
@@ -336,47 +558,114 @@ public class TransactionImpl implements Transaction {
     if (colSet.size() == 0)
       updates.remove(cd.prow);
     
+    // conditional mutations are atomic per row, so when there is only one row lock every column with the primary
+    cd.singleRow = updates.size() == 0 || (updates.size() == 1 && updates.containsKey(cd.prow));
+
+    boolean parallel = !cd.singleRow && config.getBooleanProperty(AccismusProperties.COMMIT_PARALLEL_PREWRITE_PROP);
+    Map<Column,ByteSequence> primaryRowUpdates = updates.get(cd.prow);
+
     // try to lock primary column
     ConditionalMutation pcm = prewrite(cd.prow, cd.pcol, cd.pval, cd.prow, cd.pcol, cd.prow.equals(triggerRow));
-    
-    Status mutationStatus = cd.cw.write(pcm).getStatus();
-    
-    while (mutationStatus == Status.UNKNOWN) {
-      
-      MutableLong mcts = new MutableLong(-1);
-      TxStatus txStatus = TxStatus.getTransactionStatus(config, cd.prow, cd.pcol, startTs, mcts, null);
-      
-      switch (txStatus) {
-        case LOCKED:
-          mutationStatus = Status.ACCEPTED;
-          break;
-        case ROLLED_BACK:
-          mutationStatus = Status.REJECTED;
-          break;
-        case UNKNOWN:
-          mutationStatus = cd.cw.write(pcm).getStatus();
-          // TODO handle case were data other tx has lock
-          break;
-        case COMMITTED:
-        default:
-          throw new IllegalStateException("unexpected tx state " + txStatus + " " + cd.prow + " " + cd.pcol);
-          
-      }
+    if ((cd.singleRow || parallel) && primaryRowUpdates != null) {
+      for (Entry<Column,ByteSequence> colUpdates : primaryRowUpdates.entrySet())
+        prewrite(pcm, colUpdates.getKey(), colUpdates.getValue(), cd.prow, cd.pcol, cd.prow.equals(triggerRow));
     }
     
+    if (parallel)
+      return prewriteParallel(cd, pcm);
+
+    Status mutationStatus = getPrimaryStatus(cd, pcm, cd.cw.write(pcm).getStatus());
+    
     if (mutationStatus != Status.ACCEPTED) {
-      cd.addPrimaryToRejected();
+      addPrimaryRowToRejected(cd);
       if (checkForAckCollision(pcm)) {
         throw new AlreadyAcknowledgedException();
       }
       return false;
     }
     
+    if (cd.singleRow) {
+      // every lock was written with the primary, there are no other rows to lock or roll back
+      cd.acceptedRows = new HashSet<ByteSequence>();
+      return true;
+    }
+    
     // TODO if trigger is always primary row:col, then do not need checks elsewhere
     // try to lock other columns
+    cd.acceptedRows = new HashSet<ByteSequence>();
+    
+    boolean ackCollision = prewriteSecondaries(cd, new ArrayList<ConditionalMutation>(), false);
+    
+    if (cd.getRejected().size() > 0) {
+      rollback(cd);
+      
+      if (ackCollision)
+        throw new AlreadyAcknowledgedException();
+      
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Prewrites the primary together with all secondaries in one batch, instead of waiting for the primary lock before prewriting secondaries. This saves a
+   * round trip, but secondaries may be locked when the primary is not. If the primary is rejected the secondary locks are removed. If this transaction dies
+   * before removing them, readers will write a rollback marker on the primary column so that it can never be locked and then roll back the secondaries.
+   */
+  private boolean prewriteParallel(CommitData cd, ConditionalMutation pcm) throws TableNotFoundException, AccumuloException, AccumuloSecurityException,
+      AlreadyAcknowledgedException {
+    cd.acceptedRows = new HashSet<ByteSequence>();
+    
     ArrayList<ConditionalMutation> mutations = new ArrayList<ConditionalMutation>();
+    mutations.add(pcm);
+    
+    boolean ackCollision = prewriteSecondaries(cd, mutations, true);
+    
+    Status mutationStatus = getPrimaryStatus(cd, pcm, cd.primaryStatus);
+
+    if (mutationStatus != Status.ACCEPTED) {
+      addPrimaryRowToRejected(cd);
+      
+      // the primary was never locked, so only the secondary locks need to be removed
+      rollbackSecondaries(cd);
+      
+      if (ackCollision || checkForAckCollision(pcm))
+        throw new AlreadyAcknowledgedException();
+      
+      return false;
+    }
+    
+    if (updates.containsKey(cd.prow)) {
+      // other columns on the primary row were locked with the primary and must be rolled back with the secondaries
+      cd.acceptedRows.add(cd.prow);
+    }
+
+    if (cd.getRejected().size() > 0) {
+      rollback(cd);
+      
+      if (ackCollision)
+        throw new AlreadyAcknowledgedException();
+      
+      return false;
+    }
     
+    return true;
+  }
+
+  /**
+   * Prewrites all rows other than the primary row, adding them to the commit data's accepted or rejected rows.
+   * 
+   * @param mutations
+   *          mutations to write in the same batch, the status of a mutation on the primary row is recorded in the commit data
+   * @return true if a rejected row was rejected because the trigger was already acknowledged
+   */
+  private boolean prewriteSecondaries(CommitData cd, ArrayList<ConditionalMutation> mutations, boolean includesPrimary) throws TableNotFoundException,
+      AccumuloException, AccumuloSecurityException {
     for (Entry<ByteSequence,Map<Column,ByteSequence>> rowUpdates : updates.entrySet()) {
+      if (includesPrimary && rowUpdates.getKey().equals(cd.prow))
+        continue;
+      
       ConditionalMutation cm = null;
       boolean isTriggerRow = rowUpdates.getKey().equals(triggerRow);
       
@@ -390,34 +679,67 @@ public class TransactionImpl implements Transaction {
       mutations.add(cm);
     }
     
-    cd.acceptedRows = new HashSet<ByteSequence>();
-    
     boolean ackCollision = false;
 
     Iterator<Result> resultsIter = cd.cw.write(mutations.iterator());
     while (resultsIter.hasNext()) {
       Result result = resultsIter.next();
-      // TODO handle unknown?
       ArrayByteSequence row = new ArrayByteSequence(result.getMutation().getRow());
-      if (result.getStatus() == Status.ACCEPTED)
+      if (includesPrimary && row.equals(cd.prow)) {
+        // the caller resolves unknown and checks for ack collisions on the primary
+        cd.primaryStatus = result.getStatus();
+      } else if (result.getStatus() == Status.ACCEPTED) {
+        // TODO handle unknown?
         cd.acceptedRows.add(row);
-      else {
+      } else {
         // TODO if trigger is always primary row:col, then do not need checks elsewhere
         ackCollision |= checkForAckCollision(result.getMutation());
         cd.addToRejected(row, updates.get(row).keySet());
       }
     }
     
-    if (cd.getRejected().size() > 0) {
-      rollback(cd);
+    return ackCollision;
+  }
+
+  /**
+   * Determines the outcome of a primary prewrite whose status is unknown by looking at the primary column, retrying the write if nothing is there.
+   */
+  private Status getPrimaryStatus(CommitData cd, ConditionalMutation pcm, Status mutationStatus) throws AccumuloException, AccumuloSecurityException {
+    while (mutationStatus == Status.UNKNOWN) {
       
-      if (ackCollision)
-        throw new AlreadyAcknowledgedException();
+      MutableLong mcts = new MutableLong(-1);
+      TxStatus txStatus = TxStatus.getTransactionStatus(config, cd.prow, cd.pcol, startTs, mcts, null);
       
-      return false;
+      switch (txStatus) {
+        case LOCKED:
+          mutationStatus = Status.ACCEPTED;
+          break;
+        case ROLLED_BACK:
+          mutationStatus = Status.REJECTED;
+          break;
+        case UNKNOWN:
+          mutationStatus = cd.cw.write(pcm).getStatus();
+          // TODO handle case were data other tx has lock
+          break;
+        case COMMITTED:
+        default:
+          throw new IllegalStateException("unexpected tx state " + txStatus + " " + cd.prow + " " + cd.pcol);
+          
+      }
     }
+    
+    return mutationStatus;
+  }
 
-    return true;
+  private void addPrimaryRowToRejected(CommitData cd) {
+    Map<Column,ByteSequence> primaryRowUpdates = updates.get(cd.prow);
+    if ((cd.singleRow || cd.primaryStatus != null) && primaryRowUpdates != null) {
+      HashSet<Column> columns = new HashSet<Column>(primaryRowUpdates.keySet());
+      columns.add(cd.pcol);
+      cd.addToRejected(cd.prow, columns);
+    } else {
+      cd.addPrimaryToRejected();
+    }
   }
 
   /**
@@ -456,7 +778,8 @@ public class TransactionImpl implements Transaction {
       // TODO setting commitStarted false here is a bit of a hack... reuse code w/o doing this
       commitStarted = false;
       for (Entry<ByteSequence,Set<Column>> entry : columnsToRead.entrySet()) {
-        get(entry.getKey(), entry.getValue());
+        // must go to Accumulo, the point is to find and resolve locks on columns this transaction wrote
+        readColumns(entry.getKey(), entry.getValue());
       }
     } finally {
       commitStarted = cs;
@@ -470,8 +793,7 @@ public class TransactionImpl implements Transaction {
       List<ColumnUpdate> updates = cm.getUpdates();
       
       for (ColumnUpdate cu : updates) {
-        // TODO avoid create col vis object
-        Column col = new Column(cu.getColumnFamily(), cu.getColumnQualifier()).setVisibility(new ColumnVisibility(cu.getColumnVisibility()));
+        Column col = new Column(cu.getColumnFamily(), cu.getColumnQualifier()).setVisibility(VisibilityCache.get(cu.getColumnVisibility()));
         if (triggerColumn.equals(col)) {
           
           // TODO this check will not detect ack when tx overlaps with another tx... it will instead the the lock release.. this may be ok, the worker will
@@ -500,10 +822,26 @@ public class TransactionImpl implements Transaction {
     PrewriteIterator.setSnaptime(iterConf, startTs);
     boolean isTrigger = cd.prow.equals(triggerRow) && cd.pcol.equals(triggerColumn);
     Condition lockCheck = new Condition(cd.pcol.getFamily(), cd.pcol.getQualifier()).setIterators(iterConf).setVisibility(cd.pcol.getVisibility())
-        .setValue(LockValue.encode(cd.prow, cd.pcol, cd.pval != null, isTrigger ? observer : EMPTY_BS));
+        .setValue(getLockValue(cd.prow, cd.pcol, cd.prow, cd.pcol, cd.pval != null, isTrigger));
     ConditionalMutation delLockMutation = new ConditionalMutation(cd.prow, lockCheck);
     ColumnUtil.commitColumn(isTrigger, true, cd.pcol, cd.pval != null, startTs, commitTs, observedColumns, delLockMutation);
     
+    if (cd.singleRow) {
+      // commit the other columns and mark the transaction done in the same atomic mutation, leaving nothing for finishCommit.
+      // A single row transaction still needs the prewrite before this, it can not check for conflicts and commit in one conditional mutation. The commit
+      // timestamp has to be fetched from the oracle before the commit is written, and a reader whose start timestamp is after it could scan the row in
+      // between, miss the write and then see it on a later read. The lock written by the prewrite is what makes such a reader wait.
+      Map<Column,ByteSequence> colSet = updates.get(cd.prow);
+      if (colSet != null) {
+        boolean isTriggerRow = cd.prow.equals(triggerRow);
+        for (Entry<Column,ByteSequence> colUpdates : colSet.entrySet()) {
+          ColumnUtil.commitColumn(isTriggerRow && colUpdates.getKey().equals(triggerColumn), false, colUpdates.getKey(), colUpdates.getValue() != null,
+              startTs, commitTs, observedColumns, delLockMutation);
+        }
+      }
+      ColumnUtil.put(delLockMutation, cd.pcol, ColumnUtil.TX_DONE_PREFIX | commitTs, EMPTY);
+    }
+    
     Status mutationStatus = cd.cw.write(delLockMutation).getStatus();
     
     while (mutationStatus == Status.UNKNOWN) {
@@ -535,41 +873,83 @@ public class TransactionImpl implements Transaction {
   private void rollback(CommitData cd) throws TableNotFoundException, MutationsRejectedException {
     // roll back locks
     
-    // TODO let rollback be done lazily? this makes GC more difficult
+    if (config.getBooleanProperty(AccismusProperties.ROLLBACK_ASYNC_PROP)) {
+      rollbackAsync(cd);
+      return;
+    }
+    
+    rollbackSecondaries(cd);
+    
+    BatchWriter bw = config.getSharedBatchWriter();
+    
+    // mark transaction as complete for garbage collection purposes
+    Mutation m = new Mutation(ByteUtil.toArray(cd.prow));
+    // TODO timestamp?
+    // TODO writing the primary column with a batch writer is iffy
+    ColumnUtil.put(m, cd.pcol, ColumnUtil.DEL_LOCK_PREFIX | startTs, DelLockValue.encode(startTs, false, true));
+    ColumnUtil.put(m, cd.pcol, ColumnUtil.TX_DONE_PREFIX | startTs, EMPTY);
+    bw.addMutation(m);
+
+    // release the primary lock promptly, other transactions may be waiting on it
+    bw.flush();
+  }
+
+  /**
+   * Rolls back the primary, which rolls back the transaction, and leaves the secondaries to a background thread. Readers that find a secondary lock before
+   * it is removed will see the primary is rolled back and remove the lock themselves.
+   */
+  private void rollbackAsync(final CommitData cd) throws TableNotFoundException, MutationsRejectedException {
+    BatchWriter bw = config.getSharedBatchWriter();
+    
+    // marked as primary so that garbage collection keeps it until the transaction is marked done
+    Mutation m = new Mutation(ByteUtil.toArray(cd.prow));
+    ColumnUtil.put(m, cd.pcol, ColumnUtil.DEL_LOCK_PREFIX | startTs, DelLockValue.encode(startTs, true, true));
+    bw.addMutation(m);
     
-    BatchWriter bw = conn.createBatchWriter(table, new BatchWriterConfig());
+    // release the primary lock promptly, other transactions may be waiting on it
+    bw.flush();
     
-    Mutation m;
+    config.getAsyncCommitExecutor().execute(new Runnable() {
+      public void run() {
+        try {
+          rollbackSecondaries(cd);
+          
+          // mark transaction as complete for garbage collection purposes
+          Mutation m = new Mutation(ByteUtil.toArray(cd.prow));
+          ColumnUtil.put(m, cd.pcol, ColumnUtil.TX_DONE_PREFIX | startTs, EMPTY);
+          config.getSharedBatchWriter().addMutation(m);
+        } catch (Exception e) {
+          log.warn("Failed to roll back " + cd + ", readers will roll it back", e);
+        }
+      }
+    });
+  }
+
+  private void rollbackSecondaries(CommitData cd) throws TableNotFoundException, MutationsRejectedException {
+    BatchWriter bw = config.getSharedBatchWriter();
+    byte[] delLockValue = DelLockValue.encode(startTs, false, true);
 
     for (ByteSequence row : cd.acceptedRows) {
-      m = new Mutation(row.toArray());
+      Mutation m = new Mutation(ByteUtil.toArray(row));
       for (Column col : updates.get(row).keySet()) {
-        m.put(col.getFamily().toArray(), col.getQualifier().toArray(), col.getVisibility(), ColumnUtil.DEL_LOCK_PREFIX | startTs,
-            DelLockValue.encode(startTs, false, true));
+        ColumnUtil.put(m, col, ColumnUtil.DEL_LOCK_PREFIX | startTs, delLockValue);
       }
       bw.addMutation(m);
     }
     
+    // secondary locks must be gone before the primary is marked done
     bw.flush();
-    
-    // mark transaction as complete for garbage collection purposes
-    m = new Mutation(cd.prow.toArray());
-    // TODO timestamp?
-    // TODO writing the primary column with a batch writer is iffy
-    m.put(cd.pcol.getFamily().toArray(), cd.pcol.getQualifier().toArray(), cd.pcol.getVisibility(), ColumnUtil.DEL_LOCK_PREFIX | startTs,
-        DelLockValue.encode(startTs, false, true));
-    m.put(cd.pcol.getFamily().toArray(), cd.pcol.getQualifier().toArray(), cd.pcol.getVisibility(), ColumnUtil.TX_DONE_PREFIX | startTs, EMPTY);
-    bw.addMutation(m);
-
-    bw.close();
   }
   
   boolean finishCommit(CommitData cd, long commitTs) throws TableNotFoundException, MutationsRejectedException {
+    if (cd.singleRow)
+      // commitPrimaryColumn already did everything
+      return true;
+
     // delete locks and add writes for other columns
-    // TODO use shared batch writer
-    BatchWriter bw = conn.createBatchWriter(table, new BatchWriterConfig());
+    BatchWriter bw = config.getSharedBatchWriter();
     for (Entry<ByteSequence,Map<Column,ByteSequence>> rowUpdates : updates.entrySet()) {
-      Mutation m = new Mutation(rowUpdates.getKey().toArray());
+      Mutation m = new Mutation(ByteUtil.toArray(rowUpdates.getKey()));
       boolean isTriggerRow = rowUpdates.getKey().equals(triggerRow);
       for (Entry<Column,ByteSequence> colUpdates : rowUpdates.getValue().entrySet()) {
         ColumnUtil.commitColumn(isTriggerRow && colUpdates.getKey().equals(triggerColumn), false, colUpdates.getKey(), colUpdates.getValue() != null, startTs,
@@ -579,22 +959,35 @@ public class TransactionImpl implements Transaction {
       bw.addMutation(m);
     }
     
+    // secondary columns must be committed before the primary is marked done
     bw.flush();
     
-    // mark transaction as complete for garbage collection purposes
-    Mutation m = new Mutation(cd.prow.toArray());
-    m.put(cd.pcol.getFamily().toArray(), cd.pcol.getQualifier().toArray(), cd.pcol.getVisibility(), ColumnUtil.TX_DONE_PREFIX | commitTs, EMPTY);
+    // mark transaction as complete for garbage collection purposes, nothing depends on this being written right away so leave it buffered
+    Mutation m = new Mutation(ByteUtil.toArray(cd.prow));
+    ColumnUtil.put(m, cd.pcol, ColumnUtil.TX_DONE_PREFIX | commitTs, EMPTY);
     bw.addMutation(m);
-
-    bw.close();
     
     return true;
   }
 
+  private void finishCommitAsync(final CommitData cd, final long commitTs) {
+    if (cd.singleRow)
+      return;
+
+    config.getAsyncCommitExecutor().execute(new Runnable() {
+      public void run() {
+        try {
+          finishCommit(cd, commitTs);
+        } catch (Exception e) {
+          log.warn("Failed to finish commit " + cd + " " + commitTs + ", readers will roll it forward", e);
+        }
+      }
+    });
+  }
+
   CommitData createCommitData() throws TableNotFoundException {
     CommitData cd = new CommitData();
-    // TODO use shared writer
-    cd.cw = config.createConditionalWriter();
+    cd.cw = config.getSharedConditionalWriter();
     return cd;
   }
 
@@ -604,6 +997,7 @@ public class TransactionImpl implements Transaction {
     if (updates.size() == 0)
       return;
 
+    long t1 = System.nanoTime();
     CommitData cd;
     try {
       cd = createCommitData();
@@ -617,26 +1011,43 @@ public class TransactionImpl implements Transaction {
         throw new CommitException();
       }
       
+      long t2 = System.nanoTime();
+      // the commit timestamp must be obtained after all locks are written, so this can not overlap with prewriting
       long commitTs = OracleClient.getInstance(config).getTimestamp();
+      config.getCommitStats().prewritten((t2 - t1) / 1000, (System.nanoTime() - t2) / 1000);
       if (commitPrimaryColumn(cd, commitTs)) {
-        finishCommit(cd, commitTs);
+        // the transaction is committed once the primary is, readers will roll forward any columns not yet committed
+        if (config.getBooleanProperty(AccismusProperties.COMMIT_ASYNC_PROP))
+          finishCommitAsync(cd, commitTs);
+        else
+          finishCommit(cd, commitTs);
+        config.getCommitStats().committed((System.nanoTime() - t1) / 1000);
       } else {
         // TODO write TX_DONE
         throw new CommitException();
       }
 
     } catch (CommitException e) {
+      config.getCommitStats().failed();
       throw e;
     } catch (RuntimeException e) {
       throw e;
     } catch (Exception e) {
       throw new RuntimeException(e);
-    } finally {
-      cd.cw.close();
     }
   }
 
   long getStartTs() {
+    if (startTsFuture != null) {
+      try {
+        startTs = startTsFuture.get();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+        throw new RuntimeException("Failed to get start timestamp", e.getCause());
+      }
+      startTsFuture = null;
+    }
     return startTs;
   }
 }
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.accismus.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.accumulo.accismus.api.config.AccismusProperties;
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+ * Records that a process committing transactions is alive, using an ephemeral sequential node in zookeeper. The name of the node is written into the locks of
+ * the process's transactions, so a reader that finds a lock can tell if the transaction's owner is gone and roll it back right away, instead of waiting on a
+ * transaction that will never finish. It also lets readers wait longer on locks of live owners instead of aborting slow transactions.
+ * 
+ * <p>
+ * If the zookeeper session of a live process expires, its node goes away and readers may roll back its transactions. Those transactions then fail to commit,
+ * since committing the primary column is conditional on its lock. A new node is registered for later transactions.
+ */
+public class Transactor {
+
+  private static Logger log = Logger.getLogger(Transactor.class);
+
+  public static enum Status {
+    ALIVE, DEAD, UNKNOWN
+  }
+
+  // nodes are sequential and never reused, so a transactor seen dead stays dead
+  private static final int MAX_DEAD = 10000;
+
+  private class TransactorWatcher implements Watcher {
+    @Override
+    public void process(WatchedEvent event) {
+      if (event.getType() == EventType.None) {
+        switch (event.getState()) {
+          case Expired:
+            reconnect();
+            break;
+          default:
+            break;
+        }
+      }
+    }
+  }
+
+  private Configuration config;
+  private String dir;
+  private volatile ZooKeeper zk;
+  // the name of this process's node, created when first needed
+  private ByteSequence id;
+  private Map<ByteSequence,Boolean> dead = new LinkedHashMap<ByteSequence,Boolean>(16, .75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    protected boolean removeEldestEntry(Map.Entry<ByteSequence,Boolean> eldest) {
+      return size() > MAX_DEAD;
+    }
+  };
+
+  public Transactor(Configuration config) throws Exception {
+    this.config = config;
+    this.dir = config.getZookeeperRoot() + Constants.Zookeeper.TRANSACTORS;
+    this.zk = connect();
+  }
+
+  private ZooKeeper connect() throws Exception {
+    return new ZooKeeper(config.getConnector().getInstance().getZooKeepers(), config.getIntProperty(AccismusProperties.TRANSACTOR_ZOOKEEPER_TIMEOUT_PROP),
+        new TransactorWatcher());
+  }
+
+  private synchronized void reconnect() {
+    log.warn("Transactor zookeeper session expired " + id);
+
+    // transactions using the old node may have been rolled back by readers, later transactions will use a new node
+    id = null;
+    try {
+      zk.close();
+      zk = connect();
+    } catch (Exception e) {
+      log.error("Failed to reconnect to zookeeper", e);
+    }
+  }
+
+  /**
+   * @return the name of this process's node, registering the node if needed
+   */
+  public synchronized ByteSequence getId() throws Exception {
+    if (id == null) {
+      try {
+        // instances initialized before transactors existed will not have this node
+        zk.create(dir, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+      } catch (KeeperException.NodeExistsException e) {}
+
+      String node = zk.create(dir + "/tx-", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+      id = new ArrayByteSequence(node.substring(node.lastIndexOf('/') + 1));
+    }
+    return id;
+  }
+
+  /**
+   * @return DEAD if the transactor's node is known to be gone, ALIVE if it exists and UNKNOWN when zookeeper can not be reached
+   */
+  public Status getStatus(ByteSequence transactor) {
+    synchronized (dead) {
+      if (dead.containsKey(transactor))
+        return Status.DEAD;
+    }
+
+    try {
+      if (zk.exists(dir + "/" + transactor, false) != null)
+        return Status.ALIVE;
+    } catch (Exception e) {
+      log.debug("Failed to check transactor " + transactor, e);
+      return Status.UNKNOWN;
+    }
+
+    synchronized (dead) {
+      dead.put(new ArrayByteSequence(transactor.toArray()), Boolean.TRUE);
+    }
+    return Status.DEAD;
+  }
+
+  public synchronized void close() {
+    try {
+      zk.close();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.accismus.impl;
+
+/**
+ * The status of a transaction, as determined by inspecting its primary column.
+ */
+public class TxInfo {
+  private TxStatus status;
+  private long commitTs;
+  private byte[] lockValue;
+
+  TxInfo(TxStatus status, long commitTs, byte[] lockValue) {
+    this.status = status;
+    this.commitTs = commitTs;
+    this.lockValue = lockValue;
+  }
+
+  public TxStatus getStatus() {
+    return status;
+  }
+
+  /**
+   * @return the commit timestamp when the transaction is committed, otherwise -1
+   */
+  public long getCommitTs() {
+    return commitTs;
+  }
+
+  /**
+   * @return the value of the primary lock when the transaction is locked, otherwise null
+   */
+  public byte[] getLockValue() {
+    return lockValue;
+  }
+}
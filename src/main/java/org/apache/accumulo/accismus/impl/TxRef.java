@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.accismus.impl;
+
+import org.apache.accumulo.accismus.api.Column;
+import org.apache.accumulo.core.data.ByteSequence;
+
+/**
+ * Identifies a transaction by its primary row, primary column and start timestamp.
+ */
+public class TxRef {
+  private ByteSequence prow;
+  private Column pcol;
+  private long startTs;
+
+  public TxRef(ByteSequence prow, Column pcol, long startTs) {
+    this.prow = prow;
+    this.pcol = pcol;
+    this.startTs = startTs;
+  }
+
+  public ByteSequence getPrimaryRow() {
+    return prow;
+  }
+
+  public Column getPrimaryColumn() {
+    return pcol;
+  }
+
+  public long getStartTs() {
+    return startTs;
+  }
+
+  public int hashCode() {
+    return prow.hashCode() + pcol.hashCode() + (int) (startTs ^ (startTs >>> 32));
+  }
+
+  public boolean equals(Object o) {
+    if (o instanceof TxRef) {
+      TxRef otr = (TxRef) o;
+      return startTs == otr.startTs && prow.equals(otr.prow) && pcol.equals(otr.pcol);
+    }
+
+    return false;
+  }
+
+  public String toString() {
+    return prow + " " + pcol + " " + startTs;
+  }
+}
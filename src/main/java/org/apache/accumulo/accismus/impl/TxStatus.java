@@ -16,15 +16,26 @@
  */
 package org.apache.accumulo.accismus.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.accumulo.accismus.api.Column;
+import org.apache.accumulo.accismus.api.config.AccismusProperties;
 import org.apache.accumulo.accismus.impl.iterators.RollbackCheckIterator;
+import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.commons.lang.mutable.MutableLong;
+import org.apache.hadoop.io.Text;
 
 public enum TxStatus {
   UNKNOWN, LOCKED, ROLLED_BACK, COMMITTED;
@@ -35,55 +46,137 @@ public enum TxStatus {
   public static TxStatus getTransactionStatus(Configuration config, ByteSequence prow, Column pcol, long startTs, MutableLong commitTs, Value lockVal) {
     // TODO ensure primary is visible
 
-    IteratorSetting is = new IteratorSetting(10, RollbackCheckIterator.class);
-    RollbackCheckIterator.setLocktime(is, startTs);
+    TxRef tx = new TxRef(prow, pcol, startTs);
+    TxInfo info = config.getTxStatusCache().get(tx);
     
-    Entry<Key,Value> entry = ColumnUtil.checkColumn(config, is, prow, pcol);
-
-    TxStatus status;
+    if (info == null) {
+      IteratorSetting is = new IteratorSetting(10, RollbackCheckIterator.class);
+      RollbackCheckIterator.setLocktime(is, startTs);
+      
+      info = getTransactionInfo(tx, ColumnUtil.checkColumn(config, is, prow, pcol));
+      cache(config, tx, info);
+    }
+    
+    if (info.getStatus() == TxStatus.COMMITTED)
+      commitTs.setValue(info.getCommitTs());
+    else if (info.getStatus() == TxStatus.LOCKED && lockVal != null)
+      lockVal.set(info.getLockValue());
+    
+    return info.getStatus();
+  }
+  
+  /**
+   * Determines the state of many transactions at once. The primary columns of all the transactions are read with one batch scanner, each range carrying its
+   * transaction's start timestamp.
+   */
+  public static Map<TxRef,TxInfo> getTransactionStatuses(Configuration config, Collection<TxRef> txs) {
+    Map<TxRef,TxInfo> ret = new HashMap<TxRef,TxInfo>();
+    
+    // a scan checks one transaction per primary column, so the rare transactions that share a primary column with another are checked by later scans
+    List<Map<Key,TxRef>> scans = new ArrayList<Map<Key,TxRef>>();
+    for (TxRef tx : new HashSet<TxRef>(txs)) {
+      TxInfo info = config.getTxStatusCache().get(tx);
+      if (info != null) {
+        ret.put(tx, info);
+      } else {
+        Key column = columnKey(tx);
+        int i = 0;
+        while (i < scans.size() && scans.get(i).containsKey(column))
+          i++;
+        if (i == scans.size())
+          scans.add(new HashMap<Key,TxRef>());
+        scans.get(i).put(column, tx);
+      }
+    }
+    
+    for (Map<Key,TxRef> scan : scans) {
+      ArrayList<Range> ranges = new ArrayList<Range>(scan.size());
+      for (Entry<Key,TxRef> entry : scan.entrySet())
+        ranges.add(RollbackCheckIterator.createRange(entry.getKey(), entry.getValue().getStartTs()));
+      
+      BatchScanner bs;
+      try {
+        bs = config.getConnector().createBatchScanner(config.getTable(), config.getAuthorizations(),
+            config.getIntProperty(AccismusProperties.BATCH_SCANNER_THREADS_PROP));
+      } catch (TableNotFoundException e) {
+        throw new RuntimeException(e);
+      }
+      
+      try {
+        bs.setRanges(ranges);
+        bs.addScanIterator(new IteratorSetting(10, RollbackCheckIterator.class));
+        
+        for (Entry<Key,Value> entry : bs) {
+          Key column = new Key(entry.getKey());
+          column.setTimestamp(Long.MAX_VALUE);
+          TxRef tx = scan.get(column);
+          TxInfo info = getTransactionInfo(tx, entry);
+          cache(config, tx, info);
+          ret.put(tx, info);
+        }
+      } finally {
+        bs.close();
+      }
+      
+      // a primary column with nothing for the transaction was never locked
+      for (TxRef tx : scan.values())
+        if (!ret.containsKey(tx))
+          ret.put(tx, new TxInfo(TxStatus.UNKNOWN, -1, null));
+    }
+    
+    return ret;
+  }
+  
+  private static Key columnKey(TxRef tx) {
+    Column pcol = tx.getPrimaryColumn();
+    return new Key(ByteUtil.toText(tx.getPrimaryRow()), ByteUtil.toText(pcol.getFamily()), ByteUtil.toText(pcol.getQualifier()), new Text(pcol
+        .getVisibility().getExpression()));
+  }
+  
+  private static void cache(Configuration config, TxRef tx, TxInfo info) {
+    if (info.getStatus() == TxStatus.COMMITTED || info.getStatus() == TxStatus.ROLLED_BACK)
+      config.getTxStatusCache().put(tx, info);
+  }
+  
+  private static TxInfo getTransactionInfo(TxRef tx, Entry<Key,Value> entry) {
+    long startTs = tx.getStartTs();
     
     if (entry == null) {
-      return TxStatus.UNKNOWN;
+      return new TxInfo(TxStatus.UNKNOWN, -1, null);
     }
     
     long colType = entry.getKey().getTimestamp() & ColumnUtil.PREFIX_MASK;
     long ts = entry.getKey().getTimestamp() & ColumnUtil.TIMESTAMP_MASK;
     
     if (colType == ColumnUtil.LOCK_PREFIX) {
-      if (ts == startTs) {
-        status = TxStatus.LOCKED;
-        if (lockVal != null)
-          lockVal.set(entry.getValue().get());
-      } else
-        status = TxStatus.UNKNOWN; // locked by another tx
+      if (ts == startTs)
+        return new TxInfo(TxStatus.LOCKED, -1, entry.getValue().get());
+      else
+        return new TxInfo(TxStatus.UNKNOWN, -1, null); // locked by another tx
     } else if (colType == ColumnUtil.DEL_LOCK_PREFIX) {
       DelLockValue dlv = new DelLockValue(entry.getValue().get());
       
       if (dlv.getTimestamp() != startTs) {
         // expect this to always be false, must be a bug in the iterator
-        throw new IllegalStateException(prow + " " + pcol + " (" + dlv.getTimestamp() + " != " + startTs + ") ");
+        throw new IllegalStateException(tx + " (" + dlv.getTimestamp() + " != " + startTs + ") ");
       }
       
       if (dlv.isRollback()) {
-        status = TxStatus.ROLLED_BACK;
+        return new TxInfo(TxStatus.ROLLED_BACK, -1, null);
       } else {
-        status = TxStatus.COMMITTED;
-        commitTs.setValue(ts);
+        return new TxInfo(TxStatus.COMMITTED, ts, null);
       }
     } else if (colType == ColumnUtil.WRITE_PREFIX) {
       long timePtr = WriteValue.getTimestamp(entry.getValue().get());
       
       if (timePtr != startTs) {
         // expect this to always be false, must be a bug in the iterator
-        throw new IllegalStateException(prow + " " + pcol + " (" + timePtr + " != " + startTs + ") ");
+        throw new IllegalStateException(tx + " (" + timePtr + " != " + startTs + ") ");
       }
 
-      status = TxStatus.COMMITTED;
-      commitTs.setValue(ts);
+      return new TxInfo(TxStatus.COMMITTED, ts, null);
     } else {
       throw new IllegalStateException("unexpected col type returned " + colType);
     }
-    
-    return status;
   }
-}
\ No newline at end of file
+}
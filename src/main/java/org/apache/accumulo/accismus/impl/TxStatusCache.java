@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.accismus.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.accumulo.accismus.api.Column;
+import org.apache.accumulo.core.data.ArrayByteSequence;
+
+/**
+ * A bounded cache of transactions known to be committed or rolled back, keyed by primary row, primary column and start timestamp. Once a transaction is
+ * committed or rolled back its status never changes, so lock resolution can use a cached status instead of reading the primary column again. Other statuses
+ * are never cached.
+ */
+public class TxStatusCache {
+
+  static final int MAX_SIZE = 10000;
+
+  private Map<TxRef,TxInfo> cache = new LinkedHashMap<TxRef,TxInfo>(16, .75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    protected boolean removeEldestEntry(Map.Entry<TxRef,TxInfo> eldest) {
+      return size() > MAX_SIZE;
+    }
+  };
+
+  private long hits = 0;
+  private long misses = 0;
+
+  /**
+   * @return the cached status or null if the transaction is not known to be committed or rolled back
+   */
+  public synchronized TxInfo get(TxRef tx) {
+    TxInfo info = cache.get(tx);
+    if (info == null)
+      misses++;
+    else
+      hits++;
+    return info;
+  }
+
+  public synchronized void put(TxRef tx, TxInfo info) {
+    if (info.getStatus() != TxStatus.COMMITTED && info.getStatus() != TxStatus.ROLLED_BACK)
+      throw new IllegalArgumentException("status can change " + info.getStatus());
+
+    // the row may be a view of a larger array and the column may be changed by the caller
+    Column pcol = tx.getPrimaryColumn();
+    Column col = new Column(new ArrayByteSequence(pcol.getFamily().toArray()), new ArrayByteSequence(pcol.getQualifier().toArray())).setVisibility(pcol
+        .getVisibility());
+    cache.put(new TxRef(new ArrayByteSequence(tx.getPrimaryRow().toArray()), col, tx.getStartTs()), info);
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+}
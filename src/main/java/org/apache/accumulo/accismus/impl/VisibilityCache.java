@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.accismus.impl;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.security.ColumnVisibility;
+
+/**
+ * A bounded cache of parsed column visibilities, keyed by their expression. Parsing an expression is expensive and the same few visibilities are usually
+ * seen over and over. Lookups do not lock or modify the cache, so it is not a point of contention on the read path. When more than {@link #MAX_SIZE}
+ * distinct expressions are seen, arbitrary entries are evicted until the cache is back to {@link #EVICT_TO_SIZE}.
+ */
+public class VisibilityCache {
+
+  static final int MAX_SIZE = 10000;
+  static final int EVICT_TO_SIZE = MAX_SIZE * 3 / 4;
+
+  private static final ConcurrentHashMap<ByteSequence,ColumnVisibility> cache = new ConcurrentHashMap<ByteSequence,ColumnVisibility>();
+
+  private VisibilityCache() {}
+
+  /**
+   * @param expression
+   *          is not retained, so it may be a view of a larger array
+   */
+  public static ColumnVisibility get(ByteSequence expression) {
+    ColumnVisibility cv = cache.get(expression);
+    if (cv != null)
+      return cv;
+
+    // a visibility parsed by two threads at once is harmless
+    byte[] copy = expression.toArray();
+    cv = new ColumnVisibility(copy);
+
+    // only misses pay for checking the size, evicting in bulk keeps that rare
+    if (cache.size() >= MAX_SIZE) {
+      Iterator<ByteSequence> iter = cache.keySet().iterator();
+      while (iter.hasNext() && cache.size() > EVICT_TO_SIZE) {
+        iter.next();
+        iter.remove();
+      }
+    }
+
+    cache.put(new ArrayByteSequence(copy), cv);
+
+    return cv;
+  }
+
+  public static ColumnVisibility get(byte[] expression) {
+    return get(new ArrayByteSequence(expression));
+  }
+}
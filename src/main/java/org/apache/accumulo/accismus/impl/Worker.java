@@ -158,8 +158,7 @@ public class Worker {
     for (Entry<Key,Value> entry : scanner) {
       List<ByteSequence> ca = ByteUtil.split(entry.getKey().getColumnQualifierData());
       Column col = new Column(ca.get(0), ca.get(1));
-      // TODO cache col vis
-      col.setVisibility(entry.getKey().getColumnVisibilityParsed());
+      col.setVisibility(VisibilityCache.get(entry.getKey().getColumnVisibilityData()));
       
       Observer observer = colObservers.get(col);
       if (observer == null) {
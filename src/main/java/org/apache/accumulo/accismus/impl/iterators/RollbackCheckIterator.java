@@ -34,13 +34,14 @@ import org.apache.accumulo.core.iterators.IteratorUtil;
 import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
 
 /**
- * 
+ * Finds the entry in a column that shows whether the transaction that locked it at a given time is still locked, committed or rolled back. The lock time is
+ * set as an option for the whole scan, or per range with {@link #createRange(Key, long)} so that one batch scan can check many transactions.
  */
 public class RollbackCheckIterator implements SortedKeyValueIterator<Key,Value> {
   private static final String TIMESTAMP_OPT = "timestampOpt";
   
   private SortedKeyValueIterator<Key,Value> source;
-  private long lockTime;
+  private long optLockTime = -1;
   
   boolean hasTop = false;
   boolean checkAck = false;
@@ -52,9 +53,25 @@ public class RollbackCheckIterator implements SortedKeyValueIterator<Key,Value>
     cfg.addOption(TIMESTAMP_OPT, time + "");
   }
   
+  /**
+   * Creates a range covering one column that carries the lock time in its start key, for scans without the lock time option.
+   * 
+   * @param column
+   *          key with the row, family, qualifier and visibility of the column
+   */
+  public static Range createRange(Key column, long lockTime) {
+    if (lockTime < 0 || (ColumnUtil.PREFIX_MASK & lockTime) != 0) {
+      throw new IllegalArgumentException();
+    }
+    Key start = new Key(column);
+    start.setTimestamp(lockTime);
+    return new Range(start, true, column.followingKey(PartialKey.ROW_COLFAM_COLQUAL_COLVIS), false);
+  }
+  
   public void init(SortedKeyValueIterator<Key,Value> source, Map<String,String> options, IteratorEnvironment env) throws IOException {
     this.source = source;
-    this.lockTime = Long.parseLong(options.get(TIMESTAMP_OPT));
+    if (options.containsKey(TIMESTAMP_OPT))
+      this.optLockTime = Long.parseLong(options.get(TIMESTAMP_OPT));
   }
   
   public boolean hasTop() {
@@ -66,8 +83,22 @@ public class RollbackCheckIterator implements SortedKeyValueIterator<Key,Value>
   }
   
   public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
-    IteratorUtil.maximizeStartKeyTimeStamp(range);
-
+    hasTop = false;
+    
+    if (!range.isStartKeyInclusive()) {
+      // continuing after the entry returned for this column, at most one entry is returned per column
+      return;
+    }
+    
+    long lockTime = optLockTime;
+    if (lockTime == -1) {
+      lockTime = range.getStartKey() == null ? Long.MAX_VALUE : range.getStartKey().getTimestamp();
+      if (lockTime == Long.MAX_VALUE)
+        throw new IllegalArgumentException("no lock time set for range " + range);
+    }
+    
+    range = IteratorUtil.maximizeStartKeyTimeStamp(range);
+    
     source.seek(range, columnFamilies, inclusive);
     
     Key curCol = new Key();
@@ -83,7 +114,6 @@ public class RollbackCheckIterator implements SortedKeyValueIterator<Key,Value>
 
     long invalidationTime = -1;
 
-    hasTop = false;
     while (source.hasTop() && curCol.equals(source.getTopKey(), PartialKey.ROW_COLFAM_COLQUAL_COLVIS)) {
       long colType = source.getTopKey().getTimestamp() & ColumnUtil.PREFIX_MASK;
       long ts = source.getTopKey().getTimestamp() & ColumnUtil.TIMESTAMP_MASK;
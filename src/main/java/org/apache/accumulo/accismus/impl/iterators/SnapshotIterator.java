@@ -39,17 +39,29 @@ import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
 public class SnapshotIterator implements SortedKeyValueIterator<Key,Value> {
   
   private static final String TIMESTAMP_OPT = "timestampOpt";
+  private static final String READ_COMMITTED_OPT = "readCommittedOpt";
+  
+  // entries stepped over before seeking instead, a seek costs about as much as reading this many entries
+  static final int SKIP_LIMIT = 10;
   
   private SortedKeyValueIterator<Key,Value> source;
   private long snaptime;
+  private boolean readCommitted = false;
   private boolean hasTop = false;
   
   private Key curCol = new Key();
   
+  // the last seek, used to seek past entries that would be expensive to step over
+  private Range range;
+  private Collection<ByteSequence> columnFamilies;
+  private boolean inclusive;
+  
   private void findTop() throws IOException {
     while (source.hasTop()) {
       long invalidationTime = -1;
       long dataPointer = -1;
+      // commit time of the write visible to the snapshot
+      long writeTime = -1;
       
       if (source.getTopKey().getColumnFamilyData().equals(Constants.NOTIFY_CF)) {
         source.next();
@@ -58,58 +70,99 @@ public class SnapshotIterator implements SortedKeyValueIterator<Key,Value> {
 
       curCol.set(source.getTopKey());
       
-      while (source.hasTop() && curCol.equals(source.getTopKey(), PartialKey.ROW_COLFAM_COLQUAL_COLVIS)) {
-        long colType = source.getTopKey().getTimestamp() & ColumnUtil.PREFIX_MASK;
+      // tx done markers sort before writes and are not needed
+      skipTo(columnKey(ColumnUtil.WRITE_PREFIX | ColumnUtil.TIMESTAMP_MASK));
+      
+      // writes sort newest first, so only writes committed after the snapshot are read before the visible write. Older writes are never read.
+      while (inColumn(ColumnUtil.WRITE_PREFIX)) {
         long ts = source.getTopKey().getTimestamp() & ColumnUtil.TIMESTAMP_MASK;
+        long timePtr = WriteValue.getTimestamp(source.getTopValue().get());
         
-        if (colType == ColumnUtil.TX_DONE_PREFIX) {
-          
-        } else if (colType == ColumnUtil.WRITE_PREFIX) {
-          // TODO check of truncated writes
-          
-          long timePtr = WriteValue.getTimestamp(source.getTopValue().get());
-          
-          if (timePtr > invalidationTime)
-            invalidationTime = timePtr;
-
-          if (dataPointer == -1) {
-            if (ts <= snaptime)
-              dataPointer = timePtr;
-            else if (WriteValue.isTruncated(source.getTopValue().get()))
-              return;
-          }
-        } else if (colType == ColumnUtil.DEL_LOCK_PREFIX) {
-          long timePtr = DelLockValue.getTimestamp(source.getTopValue().get());
-          
-          if (timePtr > invalidationTime)
-            invalidationTime = timePtr;
-        } else if (colType == ColumnUtil.LOCK_PREFIX) {
-          if (ts > invalidationTime && ts <= snaptime) {
+        if (timePtr > invalidationTime)
+          invalidationTime = timePtr;
+        
+        if (ts <= snaptime) {
+          dataPointer = timePtr;
+          writeTime = ts;
+          break;
+        } else if (WriteValue.isTruncated(source.getTopValue().get())) {
+          return;
+        }
+        
+        source.next();
+      }
+      
+      if (!readCommitted) {
+        // the newest lock before the snapshot is the only one to check, any write or deleted lock that supersedes it supersedes older locks too
+        skipTo(columnKey(ColumnUtil.LOCK_PREFIX | snaptime));
+        if (inColumn(ColumnUtil.LOCK_PREFIX)) {
+          long lockTime = source.getTopKey().getTimestamp() & ColumnUtil.TIMESTAMP_MASK;
+          if (lockTime > invalidationTime && !isSuperseded(lockTime, writeTime)) {
             // nothing supersedes this lock, therefore the column is locked
+            seekTo(columnKey(ColumnUtil.LOCK_PREFIX | lockTime));
             return;
           }
-        } else if (colType == ColumnUtil.DATA_PREFIX) {
-          if (dataPointer == ts) {
-            // found data for this column
-            return;
-          }
-          
-          // TODO could possibly seek to next col when ts < dataPointer
-        } else if (colType == ColumnUtil.ACK_PREFIX) {
-          
-        } else {
-          throw new IllegalArgumentException();
         }
-        
+      }
+      
+      if (dataPointer != -1) {
+        // acks sort between locks and data and data sorts newest first, so skip straight to the data pointed to
+        skipTo(columnKey(ColumnUtil.DATA_PREFIX | dataPointer));
+        if (inColumn(ColumnUtil.DATA_PREFIX) && (source.getTopKey().getTimestamp() & ColumnUtil.TIMESTAMP_MASK) == dataPointer) {
+          // found data for this column
+          return;
+        }
         // TODO handle case where dataPointer >=0, but no data was found
+      }
+      
+      skipTo(curCol.followingKey(PartialKey.ROW_COLFAM_COLQUAL_COLVIS));
+    }
+  }
+  
+  /**
+   * Looks for a write or deleted lock pointing at the lock's start time or later among the entries findTop did not read, which are the writes older than the
+   * visible write and all deleted locks. Writes and deleted locks are keyed by a time no earlier than the start time they point at, so only the entries
+   * keyed after the lock's start time are read. Were that ever not the case, the column would be reported as locked and resolved by the scanner.
+   */
+  private boolean isSuperseded(long lockTime, long writeTime) throws IOException {
+    if (writeTime != -1) {
+      seekTo(columnKey(ColumnUtil.WRITE_PREFIX | writeTime));
+      while (inColumn(ColumnUtil.WRITE_PREFIX) && (source.getTopKey().getTimestamp() & ColumnUtil.TIMESTAMP_MASK) > lockTime) {
+        if (WriteValue.getTimestamp(source.getTopValue().get()) >= lockTime)
+          return true;
         source.next();
       }
+      skipTo(columnKey(ColumnUtil.DEL_LOCK_PREFIX | ColumnUtil.TIMESTAMP_MASK));
+    } else {
+      // every write was read
+      seekTo(columnKey(ColumnUtil.DEL_LOCK_PREFIX | ColumnUtil.TIMESTAMP_MASK));
     }
+    
+    while (inColumn(ColumnUtil.DEL_LOCK_PREFIX) && (source.getTopKey().getTimestamp() & ColumnUtil.TIMESTAMP_MASK) >= lockTime) {
+      if (DelLockValue.getTimestamp(source.getTopValue().get()) >= lockTime)
+        return true;
+      source.next();
+    }
+    
+    return false;
+  }
+  
+  private Key columnKey(long timestamp) {
+    Key key = new Key(curCol);
+    key.setTimestamp(timestamp);
+    return key;
+  }
+  
+  private boolean inColumn(long colType) {
+    return source.hasTop() && curCol.equals(source.getTopKey(), PartialKey.ROW_COLFAM_COLQUAL_COLVIS)
+        && (source.getTopKey().getTimestamp() & ColumnUtil.PREFIX_MASK) == colType;
   }
   
   public void init(SortedKeyValueIterator<Key,Value> source, Map<String,String> options, IteratorEnvironment env) throws IOException {
     this.source = source;
     this.snaptime = Long.parseLong(options.get(TIMESTAMP_OPT));
+    if (options.containsKey(READ_COMMITTED_OPT))
+      this.readCommitted = Boolean.parseBoolean(options.get(READ_COMMITTED_OPT));
     // TODO could require client to send version as a sanity check
   }
   
@@ -118,17 +171,37 @@ public class SnapshotIterator implements SortedKeyValueIterator<Key,Value> {
   }
   
   public void next() throws IOException {
-    Key nextCol = source.getTopKey().followingKey(PartialKey.ROW_COLFAM_COLQUAL_COLVIS);
-    
-    // TODO seek (consider data size)
-    while (source.hasTop() && source.getTopKey().compareTo(nextCol) < 0) {
-      source.next();
-    }
+    skipTo(source.getTopKey().followingKey(PartialKey.ROW_COLFAM_COLQUAL_COLVIS));
     
     findTop();
     
   }
   
+  /**
+   * Advances the source to the first entry at or after the key. Like Accumulo's VersioningIterator, a few entries are stepped over and then the source is
+   * seeked, so skipping a long history of versions costs one seek instead of reading every version.
+   */
+  private void skipTo(Key key) throws IOException {
+    int count = 0;
+    while (source.hasTop() && source.getTopKey().compareTo(key) < 0) {
+      if (count == SKIP_LIMIT && !range.afterEndKey(key)) {
+        source.seek(new Range(key, true, range.getEndKey(), range.isEndKeyInclusive()), columnFamilies, inclusive);
+        return;
+      }
+      
+      // when the key is past the end of the range, the rest of the range is stepped over
+      source.next();
+      count++;
+    }
+  }
+  
+  /**
+   * Seeks the source back to an entry of the current column that was already passed.
+   */
+  private void seekTo(Key key) throws IOException {
+    source.seek(new Range(key, true, range.getEndKey(), range.isEndKeyInclusive()), columnFamilies, inclusive);
+  }
+  
   public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
     
     // handle continue case
@@ -142,6 +215,10 @@ public class SnapshotIterator implements SortedKeyValueIterator<Key,Value> {
       }
     }
     
+    this.range = range;
+    this.columnFamilies = columnFamilies;
+    this.inclusive = inclusive;
+    
     // TODO could possibly exclude notification locality group
     source.seek(range, columnFamilies, inclusive);
     
@@ -167,4 +244,12 @@ public class SnapshotIterator implements SortedKeyValueIterator<Key,Value> {
     }
     cfg.addOption(TIMESTAMP_OPT, time + "");
   }
+  
+  /**
+   * Passes over locks instead of stopping at them, so the newest value committed before the snapshot time is returned even when the column is locked. A
+   * transaction holding such a lock may still commit with a timestamp before the snapshot time, so reads are not repeatable.
+   */
+  public static void setReadCommitted(IteratorSetting cfg, boolean readCommitted) {
+    cfg.addOption(READ_COMMITTED_OPT, readCommitted + "");
+  }
 }
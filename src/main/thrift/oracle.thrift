@@ -18,5 +18,6 @@ namespace java org.apache.accumulo.accismus.impl.thrift
 
 
 service OracleService {
+	// returns the first of num timestamps, or -1 if the server is not the leader
 	i64 getTimestamps(1:string id, 2:i32 num);
 }
@@ -1,14 +1,19 @@
 package org.apache.accumulo.accismus.impl;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 
 import org.apache.accumulo.accismus.api.Column;
 import org.apache.accumulo.accismus.api.ColumnIterator;
 import org.apache.accumulo.accismus.api.RowIterator;
 import org.apache.accumulo.accismus.api.ScannerConfiguration;
+import org.apache.accumulo.accismus.api.config.AccismusProperties;
 import org.apache.accumulo.accismus.api.exceptions.AlreadyAcknowledgedException;
 import org.apache.accumulo.accismus.api.exceptions.CommitException;
 import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.security.Authorizations;
 import org.apache.accumulo.core.security.ColumnVisibility;
@@ -343,4 +348,122 @@ public class AccismusTestIT extends Base {
     Assert.assertEquals(expected, columns);
     
   }
+  
+  @Test
+  public void testReadYourWrites() throws Exception {
+    Column balanceCol = new Column("account", "balance");
+    
+    TransactionImpl tx = new TransactionImpl(config);
+    tx.set("bob", balanceCol, "10");
+    tx.set("joe", balanceCol, "20");
+    tx.commit();
+    
+    TransactionImpl tx2 = new TransactionImpl(config);
+    Assert.assertEquals("10", tx2.get("bob", balanceCol).toString());
+    Assert.assertNull(tx2.get("jill", balanceCol));
+    
+    tx2.set("bob", balanceCol, "5");
+    tx2.delete("joe", balanceCol);
+    tx2.set("jill", balanceCol, "25");
+    
+    // changes made by this transaction should be visible to it
+    Assert.assertEquals("5", tx2.get("bob", balanceCol).toString());
+    Assert.assertNull(tx2.get("joe", balanceCol));
+    Assert.assertEquals("25", tx2.get("jill", balanceCol).toString());
+    
+    // a transaction that commits after tx3 starts should not change what tx3 reads, even when tx3 reads the same column again
+    TransactionImpl tx3 = new TransactionImpl(config);
+    Assert.assertEquals("10", tx3.get("bob", balanceCol).toString());
+    
+    tx2.commit();
+    
+    Assert.assertEquals("10", tx3.get("bob", balanceCol).toString());
+    Assert.assertEquals("20", tx3.get("joe", balanceCol).toString());
+    Assert.assertNull(tx3.get("jill", balanceCol));
+    
+    TransactionImpl tx4 = new TransactionImpl(config);
+    Assert.assertEquals("5", tx4.get("bob", balanceCol).toString());
+    Assert.assertNull(tx4.get("joe", balanceCol));
+    Assert.assertEquals("25", tx4.get("jill", balanceCol).toString());
+  }
+  
+  @Test
+  public void testAsyncCommit() throws Exception {
+    Column balanceCol = new Column("account", "balance");
+    
+    Configuration aconfig = new Configuration(config);
+    aconfig.getProperties().setProperty(AccismusProperties.COMMIT_ASYNC_PROP, "true");
+    
+    try {
+      for (int i = 0; i < 10; i++) {
+        TransactionImpl tx = new TransactionImpl(aconfig);
+        for (int r = 0; r < 10; r++) {
+          ByteSequence val = tx.get(r + "", balanceCol);
+          tx.set(r + "", balanceCol, (val == null ? 0 : Integer.parseInt(val.toString())) + r + "");
+        }
+        // secondaries may not be committed yet, the next transaction must roll them forward
+        tx.commit();
+      }
+    } finally {
+      // waits for background commits
+      aconfig.close();
+    }
+    
+    TransactionImpl tx = new TransactionImpl(config);
+    for (int r = 0; r < 10; r++) {
+      Assert.assertEquals(10 * r + "", tx.get(r + "", balanceCol).toString());
+    }
+  }
+  
+  @Test
+  public void testGroupCommit() throws Exception {
+    final Column balanceCol = new Column("account", "balance");
+    
+    final Configuration gconfig = new Configuration(config);
+    gconfig.getProperties().setProperty(AccismusProperties.GROUP_COMMIT_LINGER_PROP, "50");
+    
+    try {
+      Thread[] threads = new Thread[10];
+      final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+      
+      for (int t = 0; t < threads.length; t++) {
+        final int thread = t;
+        threads[t] = new Thread(new Runnable() {
+          public void run() {
+            try {
+              for (int i = 0; i < 10; i++) {
+                // each transaction writes two rows, so prewrites and primary commits from different threads can share batches
+                TransactionImpl tx = new TransactionImpl(gconfig);
+                tx.set("t" + thread + "a" + i, balanceCol, i + "");
+                tx.set("t" + thread + "b" + i, balanceCol, i + "");
+                tx.commit();
+              }
+            } catch (Exception e) {
+              errors.add(e);
+            }
+          }
+        });
+        threads[t].start();
+      }
+      
+      for (Thread thread : threads)
+        thread.join();
+      
+      Assert.assertEquals(0, errors.size());
+      
+      Histogram batchSizes = gconfig.getCommitStats().getGroupCommitSizes();
+      // mutations from different transactions should have been written together
+      Assert.assertTrue("batch sizes " + batchSizes, batchSizes.getMax() > 1);
+    } finally {
+      gconfig.close();
+    }
+    
+    TransactionImpl tx = new TransactionImpl(config);
+    for (int t = 0; t < 10; t++) {
+      for (int i = 0; i < 10; i++) {
+        Assert.assertEquals(i + "", tx.get("t" + t + "a" + i, balanceCol).toString());
+        Assert.assertEquals(i + "", tx.get("t" + t + "b" + i, balanceCol).toString());
+      }
+    }
+  }
 }
@@ -103,5 +103,6 @@ public class Base {
   public void tearDown() throws Exception {
     conn.tableOperations().delete(table);
     oserver.stop();
+    config.close();
   }
 }
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.accismus.impl;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class ByteUtilTest {
+
+  private static ByteSequence[] fields() {
+    byte[] big = new byte[1000];
+    Arrays.fill(big, (byte) 'x');
+    // the big field needs a multi byte vint
+    return new ByteSequence[] {new ArrayByteSequence("row1"), new ArrayByteSequence(new byte[0]), new ArrayByteSequence(big), new ArrayByteSequence("q")};
+  }
+
+  @Test
+  public void testSplit() {
+    ByteSequence[] fields = fields();
+    byte[] enc = ByteUtil.concat(fields);
+
+    List<ByteSequence> split = ByteUtil.split(new ArrayByteSequence(enc));
+    Assert.assertEquals(Arrays.asList(fields), split);
+
+    // fields are views of the encoded array, nothing is copied
+    for (ByteSequence bs : split)
+      Assert.assertSame(enc, bs.getBackingArray());
+
+    // a sequence that is a view of part of a larger array
+    byte[] padded = new byte[enc.length + 10];
+    System.arraycopy(enc, 0, padded, 5, enc.length);
+    Assert.assertEquals(Arrays.asList(fields), ByteUtil.split(new ArrayByteSequence(padded, 5, enc.length)));
+  }
+
+  @Test
+  public void testTruncated() {
+    ByteSequence[] fields = fields();
+    byte[] enc = ByteUtil.concat(fields);
+
+    // offsets where a field ends, truncating there drops fields rather than corrupting one
+    int[] boundaries = new int[fields.length + 1];
+    for (int i = 0; i < fields.length; i++)
+      boundaries[i + 1] = boundaries[i] + ByteUtil.encodedLength(fields[i]);
+
+    for (int len = 0; len < enc.length; len++) {
+      // bytes after the truncated sequence must not be read
+      ArrayByteSequence truncated = new ArrayByteSequence(enc, 0, len);
+      int fieldsBefore = Arrays.binarySearch(boundaries, len);
+      if (fieldsBefore >= 0) {
+        Assert.assertEquals(Arrays.asList(fields).subList(0, fieldsBefore), ByteUtil.split(truncated));
+      } else {
+        try {
+          ByteUtil.split(truncated);
+          Assert.fail("expected truncated sequence of length " + len + " to fail");
+        } catch (IllegalArgumentException e) {}
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeLength() {
+    byte[] enc = new byte[5];
+    ByteUtil.writeVInt(enc, 0, -1);
+    ByteUtil.split(new ArrayByteSequence(enc));
+  }
+
+  @Test
+  public void testVInt() {
+    byte[] buf = new byte[10];
+    for (int i : new int[] {0, 1, -1, 127, 128, -112, -113, 255, 65536, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+      int end = ByteUtil.writeVInt(buf, 1, i);
+      Assert.assertEquals(i, ByteUtil.readVInt(buf, 1, end));
+      try {
+        ByteUtil.readVInt(buf, 1, end - 1);
+        Assert.fail("expected truncated vint " + i + " to fail");
+      } catch (IllegalArgumentException e) {}
+    }
+  }
+}
@@ -16,22 +16,35 @@
  */
 package org.apache.accumulo.accismus.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 
 import org.apache.accumulo.accismus.api.Column;
+import org.apache.accumulo.accismus.api.ColumnIterator;
+import org.apache.accumulo.accismus.api.RowIterator;
+import org.apache.accumulo.accismus.api.ScannerConfiguration;
+import org.apache.accumulo.accismus.api.config.AccismusProperties;
 import org.apache.accumulo.accismus.api.exceptions.AlreadyAcknowledgedException;
 import org.apache.accumulo.accismus.api.exceptions.CommitException;
 import org.apache.accumulo.accismus.api.exceptions.StaleScanException;
 import org.apache.accumulo.accismus.impl.TransactionImpl.CommitData;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.BatchWriterConfig;
 import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.security.Authorizations;
+import org.apache.commons.lang.mutable.MutableLong;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -95,7 +108,6 @@ public class FailureTestIT extends Base {
     
     long commitTs = OracleClient.getInstance(config).getTimestamp();
     Assert.assertFalse(tx2.commitPrimaryColumn(cd, commitTs));
-    cd.cw.close();
     
     TransactionImpl tx4 = new TransactionImpl(config);
     for (int r = 0; r < 10; r++) {
@@ -105,6 +117,104 @@ public class FailureTestIT extends Base {
 
   }
 
+  @Test
+  public void testScanPastLocks() throws Exception {
+    Column col1 = new Column("fam1", "q1");
+    Column col2 = new Column("fam1", "q2");
+    
+    TransactionImpl tx = new TransactionImpl(config);
+    
+    for (int r = 0; r < 10; r++) {
+      tx.set(r + "", col1, "0" + r + "0");
+      tx.set(r + "", col2, "0" + r + "1");
+    }
+    
+    tx.commit();
+    
+    // leave locks on a few columns in the middle of the scan
+    TransactionImpl tx2 = new TransactionImpl(config);
+    tx2.set("3", col1, "130");
+    tx2.set("6", col2, "161");
+    
+    CommitData cd = tx2.createCommitData();
+    Assert.assertTrue(tx2.preCommit(cd));
+    
+    TransactionImpl tx3 = new TransactionImpl(config);
+    RowIterator riter = tx3.get(new ScannerConfiguration());
+    
+    // the locks are rolled back while the scanner reads ahead, entries should still come back in order
+    int r = 0;
+    while (riter.hasNext()) {
+      Entry<ByteSequence,ColumnIterator> row = riter.next();
+      Assert.assertEquals(r + "", row.getKey().toString());
+      
+      ColumnIterator citer = row.getValue();
+      Entry<Column,ByteSequence> entry = citer.next();
+      Assert.assertEquals(col1, entry.getKey());
+      Assert.assertEquals("0" + r + "0", entry.getValue().toString());
+      entry = citer.next();
+      Assert.assertEquals(col2, entry.getKey());
+      Assert.assertEquals("0" + r + "1", entry.getValue().toString());
+      Assert.assertFalse(citer.hasNext());
+      r++;
+    }
+    
+    Assert.assertEquals(10, r);
+    
+    long commitTs = OracleClient.getInstance(config).getTimestamp();
+    Assert.assertFalse(tx2.commitPrimaryColumn(cd, commitTs));
+  }
+
+  @Test
+  public void testBatchGet() throws Exception {
+    // test reading many rows at once when some are locked by a transaction that needs to be rolled forward
+    
+    Column col1 = new Column("fam1", "q1");
+    Column col2 = new Column("fam1", "q2");
+    
+    HashSet<Column> columns = new HashSet<Column>();
+    columns.add(col1);
+    columns.add(col2);
+    
+    ArrayList<ByteSequence> rows = new ArrayList<ByteSequence>();
+    
+    TransactionImpl tx = new TransactionImpl(config);
+    
+    for (int r = 0; r < 10; r++) {
+      tx.set(r + "", col1, "0" + r + "0");
+      tx.set(r + "", col2, "0" + r + "1");
+      rows.add(new ArrayByteSequence(r + ""));
+    }
+    
+    tx.commit();
+    
+    TransactionImpl tx2 = new TransactionImpl(config);
+    
+    for (int r = 0; r < 5; r++) {
+      tx2.set(r + "", col1, "1" + r + "0");
+      tx2.set(r + "", col2, "1" + r + "1");
+    }
+    
+    CommitData cd = tx2.createCommitData();
+    Assert.assertTrue(tx2.preCommit(cd));
+    long commitTs = OracleClient.getInstance(config).getTimestamp();
+    Assert.assertTrue(tx2.commitPrimaryColumn(cd, commitTs));
+    
+    // a row that does not exist should not be returned
+    rows.add(new ArrayByteSequence("11"));
+    
+    TransactionImpl tx3 = new TransactionImpl(config);
+    Map<ByteSequence,Map<Column,ByteSequence>> results = tx3.get(rows, columns);
+    Assert.assertEquals(10, results.size());
+    for (int r = 0; r < 10; r++) {
+      Map<Column,ByteSequence> cols = results.get(new ArrayByteSequence(r + ""));
+      String prefix = r < 5 ? "1" : "0";
+      Assert.assertEquals(prefix + r + "0", cols.get(col1).toString());
+      Assert.assertEquals(prefix + r + "1", cols.get(col2).toString());
+    }
+    
+  }
+
   @Test
   public void testRollforwardMany() throws Exception {
     // test writing lots of columns that need to be rolled forward
@@ -133,14 +243,18 @@ public class FailureTestIT extends Base {
     long commitTs = OracleClient.getInstance(config).getTimestamp();
     Assert.assertTrue(tx2.commitPrimaryColumn(cd, commitTs));
     
+    long hits = config.getTxStatusCache().getHits();
+    
     TransactionImpl tx3 = new TransactionImpl(config);
     for (int r = 0; r < 10; r++) {
       Assert.assertEquals("1" + r + "0", tx3.get(r + "", col1).toString());
       Assert.assertEquals("1" + r + "1", tx3.get(r + "", col2).toString());
     }
     
+    // once the primary is seen committed, the other locks should not need to read it again
+    Assert.assertTrue(config.getTxStatusCache().getHits() > hits);
+    
     tx2.finishCommit(cd, commitTs);
-    cd.cw.close();
     
     TransactionImpl tx4 = new TransactionImpl(config);
     for (int r = 0; r < 10; r++) {
@@ -150,6 +264,85 @@ public class FailureTestIT extends Base {
     
   }
   
+  @Test
+  public void testReadCommitted() throws Exception {
+    TransactionImpl tx = new TransactionImpl(config);
+    tx.set("bob", balanceCol, "10");
+    tx.set("joe", balanceCol, "20");
+    tx.commit();
+    
+    TransactionImpl tx2 = new TransactionImpl(config);
+    tx2.set("bob", balanceCol, "11");
+    tx2.set("joe", balanceCol, "19");
+    CommitData cd = tx2.createCommitData();
+    Assert.assertTrue(tx2.preCommit(cd));
+    
+    long scans = config.getScanStats().getReadCommittedScans();
+    
+    // the scan should pass over the locks w/o waiting on or rolling back the transaction
+    long t1 = System.currentTimeMillis();
+    TransactionImpl tx3 = new TransactionImpl(config);
+    RowIterator riter = tx3.get(new ScannerConfiguration().setReadCommitted(true));
+    Entry<ByteSequence,ColumnIterator> row = riter.next();
+    Assert.assertEquals("bob", row.getKey().toString());
+    Assert.assertEquals("10", row.getValue().next().getValue().toString());
+    row = riter.next();
+    Assert.assertEquals("joe", row.getKey().toString());
+    Assert.assertEquals("20", row.getValue().next().getValue().toString());
+    Assert.assertFalse(riter.hasNext());
+    Assert.assertTrue(System.currentTimeMillis() - t1 < 5000);
+    
+    Assert.assertEquals(scans + 1, config.getScanStats().getReadCommittedScans());
+    
+    // writing after a read committed scan could lose tx2's update
+    try {
+      tx3.set("bob", balanceCol, "9");
+      Assert.fail();
+    } catch (IllegalStateException e) {}
+    
+    TransactionImpl tx4 = new TransactionImpl(config);
+    tx4.set("joe", balanceCol, "21");
+    try {
+      tx4.get(new ScannerConfiguration().setReadCommitted(true));
+      Assert.fail();
+    } catch (IllegalStateException e) {}
+    
+    long commitTs = OracleClient.getInstance(config).getTimestamp();
+    Assert.assertTrue(tx2.commitPrimaryColumn(cd, commitTs));
+    tx2.finishCommit(cd, commitTs);
+  }
+
+  @Test
+  public void testBulkStatus() throws Exception {
+    TransactionImpl tx = new TransactionImpl(config);
+    tx.set("bob", balanceCol, "10");
+    tx.set("joe", balanceCol, "20");
+    CommitData cd = tx.createCommitData();
+    Assert.assertTrue(tx.preCommit(cd, new ArrayByteSequence("bob"), balanceCol));
+    
+    TransactionImpl tx2 = new TransactionImpl(config);
+    tx2.set("jill", balanceCol, "60");
+    tx2.set("jane", balanceCol, "70");
+    CommitData cd2 = tx2.createCommitData();
+    Assert.assertTrue(tx2.preCommit(cd2, new ArrayByteSequence("jill"), balanceCol));
+    long commitTs = OracleClient.getInstance(config).getTimestamp();
+    Assert.assertTrue(tx2.commitPrimaryColumn(cd2, commitTs));
+    
+    TxRef locked = new TxRef(new ArrayByteSequence("bob"), balanceCol, tx.getStartTs());
+    TxRef committed = new TxRef(new ArrayByteSequence("jill"), balanceCol, tx2.getStartTs());
+    TxRef unknown = new TxRef(new ArrayByteSequence("jill"), new Column("account", "name"), tx2.getStartTs());
+    // shares a primary column with another transaction, so it is checked by a second scan
+    TxRef otherTx = new TxRef(new ArrayByteSequence("jill"), balanceCol, tx.getStartTs());
+    
+    Map<TxRef,TxInfo> statuses = TxStatus.getTransactionStatuses(config, Arrays.asList(locked, committed, unknown, otherTx));
+    Assert.assertEquals(4, statuses.size());
+    Assert.assertEquals(TxStatus.LOCKED, statuses.get(locked).getStatus());
+    Assert.assertEquals(TxStatus.COMMITTED, statuses.get(committed).getStatus());
+    Assert.assertEquals(commitTs, statuses.get(committed).getCommitTs());
+    Assert.assertEquals(TxStatus.UNKNOWN, statuses.get(unknown).getStatus());
+    Assert.assertEquals(TxStatus.UNKNOWN, statuses.get(otherTx).getStatus());
+  }
+
   @Test
   public void testRollback() throws Exception {
     // test the case where a scan encounters a stuck lock and rolls it back
@@ -195,8 +388,6 @@ public class FailureTestIT extends Base {
     long commitTs = OracleClient.getInstance(config).getTimestamp();
     Assert.assertFalse(tx2.commitPrimaryColumn(cd, commitTs));
     
-    cd.cw.close();
-
     transfer(config, "bob", "joe", 2);
     bobBal -= 2;
     joeBal += 2;
@@ -252,7 +443,6 @@ public class FailureTestIT extends Base {
     Assert.assertEquals("62", tx4.get("jill", balanceCol).toString());
 
     tx2.finishCommit(cd, commitTs);
-    cd.cw.close();
     
     TransactionImpl tx5 = new TransactionImpl(config);
     
@@ -320,6 +510,313 @@ public class FailureTestIT extends Base {
 
   }
   
+  @Test
+  public void testSingleRowCommit() throws Exception {
+    TransactionImpl tx = new TransactionImpl(config);
+    tx.set("bob", balanceCol, "10");
+    tx.set("bob", new Column("account", "name"), "Bob");
+
+    CommitData cd = tx.createCommitData();
+    Assert.assertTrue(tx.preCommit(cd));
+    long commitTs = OracleClient.getInstance(config).getTimestamp();
+    Assert.assertTrue(tx.commitPrimaryColumn(cd, commitTs));
+
+    // committing the primary should commit every column on the row and mark the transaction done w/o finishCommit
+    Scanner scanner = config.getConnector().createScanner(config.getTable(), Authorizations.EMPTY);
+    int writes = 0;
+    int txDone = 0;
+    for (Entry<Key,Value> entry : scanner) {
+      long colType = entry.getKey().getTimestamp() & ColumnUtil.PREFIX_MASK;
+      if (colType == ColumnUtil.WRITE_PREFIX)
+        writes++;
+      else if (colType == ColumnUtil.TX_DONE_PREFIX)
+        txDone++;
+    }
+
+    Assert.assertEquals(2, writes);
+    Assert.assertEquals(1, txDone);
+
+    TransactionImpl tx2 = new TransactionImpl(config);
+    Assert.assertEquals("10", tx2.get("bob", balanceCol).toString());
+    Assert.assertEquals("Bob", tx2.get("bob", new Column("account", "name")).toString());
+  }
+
+  @Test
+  public void testParallelPrewrite() throws Exception {
+    Configuration pconfig = new Configuration(config);
+    pconfig.getProperties().setProperty(AccismusProperties.COMMIT_PARALLEL_PREWRITE_PROP, "true");
+    
+    try {
+      TransactionImpl tx = new TransactionImpl(pconfig);
+      tx.set("bob", balanceCol, "10");
+      tx.set("joe", balanceCol, "20");
+      tx.set("jill", balanceCol, "60");
+      tx.commit();
+      
+      TransactionImpl tx2 = new TransactionImpl(pconfig);
+      tx2.set("bob", balanceCol, "11");
+      tx2.set("joe", balanceCol, "19");
+      
+      TransactionImpl tx3 = new TransactionImpl(pconfig);
+      tx3.set("bob", balanceCol, "12");
+      tx3.commit();
+      
+      // the primary should be rejected, the lock on joe written in parallel should be removed
+      CommitData cd = tx2.createCommitData();
+      Assert.assertFalse(tx2.preCommit(cd, new ArrayByteSequence("bob"), balanceCol));
+      
+      TransactionImpl tx4 = new TransactionImpl(pconfig);
+      tx4.set("joe", balanceCol, "21");
+      tx4.commit();
+      
+      // simulate a transaction that died after locking a secondary but before locking its primary
+      long lockTs = OracleClient.getInstance(pconfig).getTimestamp();
+      Mutation m = new Mutation("jill");
+      m.put(balanceCol.getFamily().toArray(), balanceCol.getQualifier().toArray(), balanceCol.getVisibility(), ColumnUtil.DATA_PREFIX | lockTs,
+          "0".getBytes());
+      m.put(balanceCol.getFamily().toArray(), balanceCol.getQualifier().toArray(), balanceCol.getVisibility(), ColumnUtil.LOCK_PREFIX | lockTs,
+          LockValue.encode(new ArrayByteSequence("jill"), balanceCol, new ArrayByteSequence("bob"), balanceCol, true, new ArrayByteSequence(new byte[0])));
+      BatchWriter bw = conn.createBatchWriter(table, new BatchWriterConfig());
+      bw.addMutation(m);
+      bw.close();
+      
+      // the reader should roll back the secondary and ensure the primary can never be locked
+      TransactionImpl tx5 = new TransactionImpl(pconfig);
+      Assert.assertEquals("12", tx5.get("bob", balanceCol).toString());
+      Assert.assertEquals("21", tx5.get("joe", balanceCol).toString());
+      Assert.assertEquals("60", tx5.get("jill", balanceCol).toString());
+      
+      Assert.assertEquals(TxStatus.ROLLED_BACK, TxStatus.getTransactionStatus(pconfig, new ArrayByteSequence("bob"), balanceCol, lockTs, new MutableLong(-1),
+          null));
+    } finally {
+      pconfig.close();
+    }
+  }
+
+  @Test
+  public void testOldLockFormat() throws Exception {
+    TransactionImpl tx = new TransactionImpl(config);
+    tx.set("bob", balanceCol, "10");
+    tx.set("jill", balanceCol, "60");
+    tx.commit();
+
+    ByteSequence observer = new ArrayByteSequence("obs");
+    ByteSequence bob = new ArrayByteSequence("bob");
+    Column nameCol = new Column("account", "name");
+    for (boolean isWrite : new boolean[] {true, false}) {
+      // locks on the primary, in the primary's row and in another row
+      for (Object[] lock : new Object[][] { {bob, balanceCol}, {bob, nameCol}, {new ArrayByteSequence("jill"), balanceCol}}) {
+        ByteSequence row = (ByteSequence) lock[0];
+        Column col = (Column) lock[1];
+        byte[] old = LockValue.encodeOld(bob, balanceCol, isWrite, observer);
+        byte[] enc = LockValue.encode(row, col, bob, balanceCol, isWrite, observer);
+        LockValue lv = new LockValue(row, col, old);
+        LockValue lv2 = new LockValue(row, col, enc);
+        Assert.assertEquals(lv.toString(), lv2.toString());
+        Assert.assertEquals(lv.getPrimaryVisibility(), lv2.getPrimaryVisibility());
+        Assert.assertEquals(bob, lv2.getPrimaryRow());
+        Assert.assertEquals(balanceCol, lv2.getPrimaryColumn());
+
+        // fields shared with the primary are left out
+        if (row.equals(bob))
+          Assert.assertTrue(enc.length < old.length - bob.length());
+      }
+    }
+
+    // a lock written before the lock format was versioned, by a transaction that never locked its primary
+    long lockTs = OracleClient.getInstance(config).getTimestamp();
+    Mutation m = new Mutation("jill");
+    m.put(balanceCol.getFamily().toArray(), balanceCol.getQualifier().toArray(), balanceCol.getVisibility(), ColumnUtil.DATA_PREFIX | lockTs,
+        "0".getBytes());
+    m.put(balanceCol.getFamily().toArray(), balanceCol.getQualifier().toArray(), balanceCol.getVisibility(), ColumnUtil.LOCK_PREFIX | lockTs,
+        LockValue.encodeOld(new ArrayByteSequence("bob"), balanceCol, true, new ArrayByteSequence(new byte[0])));
+    BatchWriter bw = conn.createBatchWriter(table, new BatchWriterConfig());
+    bw.addMutation(m);
+    bw.close();
+
+    TransactionImpl tx2 = new TransactionImpl(config);
+    Assert.assertEquals("10", tx2.get("bob", balanceCol).toString());
+    Assert.assertEquals("60", tx2.get("jill", balanceCol).toString());
+  }
+
+  @Test
+  public void testLockFormatSetting() throws Exception {
+    TransactionImpl tx = new TransactionImpl(config);
+    tx.set("bob", balanceCol, "10");
+    tx.set("joe", balanceCol, "20");
+    tx.commit();
+
+    // writers and readers configured for different formats, as during a rolling upgrade. Readers decode both formats whatever their setting.
+    String[][] formats = { {AccismusProperties.LOCK_FORMAT_OLD, AccismusProperties.LOCK_FORMAT_NEW},
+        {AccismusProperties.LOCK_FORMAT_NEW, AccismusProperties.LOCK_FORMAT_OLD}};
+
+    int bobBalance = 10;
+    for (String[] format : formats) {
+      Configuration wconfig = new Configuration(config);
+      wconfig.getProperties().setProperty(AccismusProperties.LOCK_FORMAT_PROP, format[0]);
+      Configuration rconfig = new Configuration(config);
+      rconfig.getProperties().setProperty(AccismusProperties.LOCK_FORMAT_PROP, format[1]);
+
+      try {
+        bobBalance++;
+        TransactionImpl tx2 = new TransactionImpl(wconfig);
+        tx2.set("bob", balanceCol, bobBalance + "");
+        tx2.set("joe", balanceCol, (30 - bobBalance) + "");
+        CommitData cd = tx2.createCommitData();
+        Assert.assertTrue(tx2.preCommit(cd, new ArrayByteSequence("bob"), balanceCol));
+        long commitTs = OracleClient.getInstance(config).getTimestamp();
+        Assert.assertTrue(tx2.commitPrimaryColumn(cd, commitTs));
+
+        // joe is still locked, its lock should be in the writer's format
+        boolean sawLock = false;
+        Scanner scanner = conn.createScanner(table, new Authorizations());
+        scanner.setRange(new Range("joe"));
+        for (Entry<Key,Value> entry : scanner) {
+          long ts = entry.getKey().getTimestamp();
+          if ((ts & ColumnUtil.PREFIX_MASK) == ColumnUtil.LOCK_PREFIX && (ts & ColumnUtil.TIMESTAMP_MASK) == tx2.getStartTs()) {
+            Assert.assertEquals(format[0].equals(AccismusProperties.LOCK_FORMAT_NEW), entry.getValue().get()[0] == LockValue.VERSION);
+            sawLock = true;
+          }
+        }
+        Assert.assertTrue(sawLock);
+
+        // the reader finds the primary through the lock and rolls joe forward
+        TransactionImpl tx3 = new TransactionImpl(rconfig);
+        Assert.assertEquals((30 - bobBalance) + "", tx3.get("joe", balanceCol).toString());
+        Assert.assertEquals(bobBalance + "", tx3.get("bob", balanceCol).toString());
+      } finally {
+        wconfig.close();
+        rconfig.close();
+      }
+    }
+  }
+
+  @Test
+  public void testDeadTransactor() throws Exception {
+    TransactionImpl tx = new TransactionImpl(config);
+    tx.set("bob", balanceCol, "10");
+    tx.set("joe", balanceCol, "20");
+    tx.commit();
+    
+    Configuration tconfig = new Configuration(config);
+    tconfig.getProperties().setProperty(AccismusProperties.TRANSACTOR_ENABLED_PROP, "true");
+    tconfig.getProperties().setProperty(AccismusProperties.LOCK_FORMAT_PROP, AccismusProperties.LOCK_FORMAT_NEW);
+    
+    try {
+      TransactionImpl tx2 = new TransactionImpl(tconfig);
+      tx2.set("bob", balanceCol, "11");
+      tx2.set("joe", balanceCol, "19");
+      
+      CommitData cd = tx2.createCommitData();
+      Assert.assertTrue(tx2.preCommit(cd, new ArrayByteSequence("bob"), balanceCol));
+      
+      ByteSequence bob = new ArrayByteSequence("bob");
+      ByteSequence owner = new LockValue(bob, balanceCol, tx2.getLockValue(bob, balanceCol, bob, balanceCol, true, false)).getTransactor();
+      Assert.assertNotNull(owner);
+      Assert.assertEquals(Transactor.Status.ALIVE, config.getTransactor().getStatus(owner));
+      
+      // simulate the process dying, its node goes away with its session
+      tconfig.getTransactor().close();
+      Assert.assertEquals(Transactor.Status.DEAD, config.getTransactor().getStatus(owner));
+      
+      // the locks should be rolled back w/o waiting for the transaction to time out
+      long t1 = System.currentTimeMillis();
+      TransactionImpl tx3 = new TransactionImpl(config);
+      Assert.assertEquals("20", tx3.get("joe", balanceCol).toString());
+      Assert.assertEquals("10", tx3.get("bob", balanceCol).toString());
+      Assert.assertTrue(System.currentTimeMillis() - t1 < 5000);
+      
+      long commitTs = OracleClient.getInstance(config).getTimestamp();
+      Assert.assertFalse(tx2.commitPrimaryColumn(cd, commitTs));
+    } finally {
+      tconfig.close();
+    }
+  }
+
+  @Test
+  public void testLiveTransactor() throws Exception {
+    TransactionImpl tx = new TransactionImpl(config);
+    tx.set("bob", balanceCol, "10");
+    tx.set("joe", balanceCol, "20");
+    tx.commit();
+    
+    Configuration tconfig = new Configuration(config);
+    tconfig.getProperties().setProperty(AccismusProperties.TRANSACTOR_ENABLED_PROP, "true");
+    tconfig.getProperties().setProperty(AccismusProperties.LOCK_FORMAT_PROP, AccismusProperties.LOCK_FORMAT_NEW);
+    Configuration rconfig = new Configuration(config);
+    rconfig.getProperties().setProperty(AccismusProperties.TRANSACTOR_ROLLBACK_TIME_PROP, "10000");
+    
+    try {
+      // the transaction fails after locking, but its process keeps running
+      TransactionImpl tx2 = new TransactionImpl(tconfig);
+      tx2.set("bob", balanceCol, "11");
+      tx2.set("joe", balanceCol, "19");
+      
+      CommitData cd = tx2.createCommitData();
+      Assert.assertTrue(tx2.preCommit(cd, new ArrayByteSequence("bob"), balanceCol));
+      
+      // the locks are aborted once the rollback time for live owners passes
+      long t1 = System.currentTimeMillis();
+      TransactionImpl tx3 = new TransactionImpl(rconfig);
+      Assert.assertEquals("20", tx3.get("joe", balanceCol).toString());
+      Assert.assertEquals("10", tx3.get("bob", balanceCol).toString());
+      Assert.assertTrue(System.currentTimeMillis() - t1 >= 10000);
+      
+      long commitTs = OracleClient.getInstance(config).getTimestamp();
+      Assert.assertFalse(tx2.commitPrimaryColumn(cd, commitTs));
+    } finally {
+      tconfig.close();
+      rconfig.close();
+    }
+  }
+
+  @Test
+  public void testAsyncRollback() throws Exception {
+    Configuration aconfig = new Configuration(config);
+    aconfig.getProperties().setProperty(AccismusProperties.ROLLBACK_ASYNC_PROP, "true");
+    
+    try {
+      TransactionImpl tx = new TransactionImpl(aconfig);
+      tx.set("bob", balanceCol, "10");
+      tx.set("joe", balanceCol, "20");
+      tx.set("jill", balanceCol, "60");
+      tx.commit();
+      
+      TransactionImpl tx2 = new TransactionImpl(aconfig);
+      tx2.set("bob", balanceCol, "11");
+      tx2.set("joe", balanceCol, "19");
+      tx2.set("jill", balanceCol, "59");
+      
+      TransactionImpl tx3 = new TransactionImpl(aconfig);
+      tx3.set("jill", balanceCol, "61");
+      tx3.commit();
+      
+      // jill is rejected, the primary should be rolled back before preCommit returns
+      CommitData cd = tx2.createCommitData();
+      Assert.assertFalse(tx2.preCommit(cd, new ArrayByteSequence("bob"), balanceCol));
+      Assert.assertEquals(TxStatus.ROLLED_BACK, TxStatus.getTransactionStatus(aconfig, new ArrayByteSequence("bob"), balanceCol, tx2.getStartTs(),
+          new MutableLong(-1), null));
+      
+      TransactionImpl tx4 = new TransactionImpl(aconfig);
+      Assert.assertEquals("10", tx4.get("bob", balanceCol).toString());
+      Assert.assertEquals("20", tx4.get("joe", balanceCol).toString());
+      Assert.assertEquals("61", tx4.get("jill", balanceCol).toString());
+    } finally {
+      // waits for background rollbacks
+      aconfig.close();
+    }
+    
+    // the transaction should be marked done once the background rollback finishes
+    Scanner scanner = config.getConnector().createScanner(config.getTable(), Authorizations.EMPTY);
+    int txDone = 0;
+    for (Entry<Key,Value> entry : scanner) {
+      if ((entry.getKey().getTimestamp() & ColumnUtil.PREFIX_MASK) == ColumnUtil.TX_DONE_PREFIX)
+        txDone++;
+    }
+    
+    Assert.assertEquals(3, txDone);
+  }
+
   @Test
   public void testStaleScan() throws Exception {
     
@@ -17,14 +17,23 @@
 package org.apache.accumulo.accismus.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.TreeSet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.accumulo.accismus.api.config.AccismusProperties;
 import org.apache.accumulo.accismus.impl.OracleClient;
+import org.apache.thrift.TException;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.ACL;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -113,7 +122,313 @@ public class OracleTestIT extends Base {
     
     Assert.assertEquals(numThreads * numTimes, ts2.size());
     Assert.assertTrue(ts1.last() < ts2.first());
-    
+
     tpool.shutdown();
   }
+
+  @Test
+  public void testAsync() throws Exception {
+    OracleClient client = OracleClient.getInstance(config);
+
+    final List<Long> callbackOutput = Collections.synchronizedList(new ArrayList<Long>());
+    final CountDownLatch cdl = new CountDownLatch(500);
+
+    OracleClient.TimestampCallback callback = new OracleClient.TimestampCallback() {
+      @Override
+      public void timestampReceived(long timestamp) {
+        callbackOutput.add(timestamp);
+        cdl.countDown();
+      }
+
+      @Override
+      public void failed(Exception e) {
+        e.printStackTrace();
+      }
+    };
+
+    List<Future<Long>> futures = new ArrayList<Future<Long>>();
+    for (int i = 0; i < 500; i++) {
+      futures.add(client.getTimestampAsync());
+      client.getTimestampAsync(callback);
+    }
+
+    TreeSet<Long> timestamps = new TreeSet<Long>();
+    for (Future<Long> future : futures)
+      timestamps.add(future.get());
+
+    Assert.assertTrue(cdl.await(30, TimeUnit.SECONDS));
+    timestamps.addAll(callbackOutput);
+
+    Assert.assertEquals(1000, timestamps.size());
+    Assert.assertTrue(timestamps.last() < client.getTimestamp());
+  }
+
+  @Test
+  public void testSharedTimestamp() throws Exception {
+    OracleClient client = OracleClient.getInstance(config);
+
+    long served = client.getSharedTimestampsServed();
+    long fetched = client.getSharedTimestampsFetched();
+
+    long ts1 = client.getSharedTimestamp(60000);
+    long ts2 = client.getSharedTimestamp(60000);
+    Assert.assertEquals(ts1, ts2);
+
+    long ts3 = client.getSharedTimestamp(0);
+    Assert.assertTrue(ts2 < ts3);
+
+    Thread.sleep(20);
+    long ts4 = client.getSharedTimestamp(10);
+    Assert.assertTrue(ts3 < ts4);
+
+    Assert.assertEquals(served + 1, client.getSharedTimestampsServed());
+    Assert.assertEquals(fetched + 3, client.getSharedTimestampsFetched());
+  }
+
+  @Test
+  public void clientThroughputTest() throws Exception {
+    int numThreads = 200;
+    int numTimes = 500;
+
+    OracleClient client = OracleClient.getInstance(config);
+
+    List<Long> output = Collections.synchronizedList(new ArrayList<Long>());
+    ExecutorService tpool = Executors.newFixedThreadPool(numThreads);
+    CountDownLatch cdl = new CountDownLatch(numThreads);
+
+    long t1 = System.nanoTime();
+    for (int i = 0; i < numThreads; i++) {
+      tpool.execute(new TimestampFetcher(numTimes, config, output, cdl));
+    }
+
+    cdl.await();
+    long t2 = System.nanoTime();
+
+    Assert.assertEquals(numThreads * numTimes, new TreeSet<Long>(output).size());
+
+    System.out.printf("client threads:%d timestamps/sec:%,.0f%n", numThreads, numThreads * numTimes / ((t2 - t1) / 1000000000.0));
+    System.out.println("  batch sizes : " + client.getBatchSizes());
+    System.out.println("  wait time us: " + client.getWaitTimes());
+
+    tpool.shutdown();
+  }
+
+  private static class FailoverFetcher implements Runnable {
+    private OracleClient client;
+    private AtomicBoolean stop;
+    // request time, arrival time, and timestamp for each request
+    private List<long[]> output;
+
+    FailoverFetcher(OracleClient client, AtomicBoolean stop, List<long[]> output) {
+      this.client = client;
+      this.stop = stop;
+      this.output = output;
+    }
+
+    @Override
+    public void run() {
+      while (!stop.get()) {
+        try {
+          long t1 = System.nanoTime();
+          long ts = client.getTimestamp();
+          output.add(new long[] {t1, System.nanoTime(), ts});
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFailover() throws Exception {
+    Configuration config2 = new Configuration(config);
+    config2.getProperties().setProperty(AccismusProperties.ORACLE_PORT_PROP, "9914");
+    OracleServer standby = new OracleServer(config2);
+    standby.start();
+
+    try {
+      Assert.assertTrue(oserver.isLeader());
+      Assert.assertFalse(standby.isLeader());
+
+      OracleClient client = OracleClient.getInstance(config);
+      AtomicBoolean stop = new AtomicBoolean(false);
+      List<long[]> output = Collections.synchronizedList(new ArrayList<long[]>());
+
+      int numThreads = 10;
+      Thread[] threads = new Thread[numThreads];
+      for (int i = 0; i < numThreads; i++) {
+        threads[i] = new Thread(new FailoverFetcher(client, stop, output));
+        threads[i].start();
+      }
+
+      Thread.sleep(500);
+
+      // a clean stop deletes the leader's nodes right away, a crash would add the oracle's zookeeper session timeout to the gap
+      long killTime = System.nanoTime();
+      oserver.stop();
+
+      while (!standby.isLeader())
+        Thread.sleep(10);
+
+      Thread.sleep(500);
+      stop.set(true);
+      for (Thread thread : threads)
+        thread.join();
+
+      long[][] samples = output.toArray(new long[0][]);
+      Assert.assertTrue(samples.length > 0);
+
+      // sort by arrival time
+      Arrays.sort(samples, new Comparator<long[]>() {
+        @Override
+        public int compare(long[] o1, long[] o2) {
+          return Long.valueOf(o1[1]).compareTo(o2[1]);
+        }
+      });
+
+      long[] arrivals = new long[samples.length];
+      long[] maxTsArrived = new long[samples.length];
+      TreeSet<Long> unique = new TreeSet<Long>();
+      long maxGap = 0;
+      long gapStart = 0;
+
+      for (int i = 0; i < samples.length; i++) {
+        arrivals[i] = samples[i][1];
+        maxTsArrived[i] = Math.max(samples[i][2], i == 0 ? Long.MIN_VALUE : maxTsArrived[i - 1]);
+        unique.add(samples[i][2]);
+        if (i > 0 && arrivals[i] - arrivals[i - 1] > maxGap) {
+          maxGap = arrivals[i] - arrivals[i - 1];
+          gapStart = arrivals[i - 1];
+        }
+      }
+
+      Assert.assertEquals(samples.length, unique.size());
+
+      // a timestamp requested after another arrived must be greater, even across leaders
+      for (long[] sample : samples) {
+        int pos = Arrays.binarySearch(arrivals, sample[0]);
+        int before = (pos >= 0 ? pos : -pos - 1) - 1;
+        if (before >= 0)
+          Assert.assertTrue(maxTsArrived[before] < sample[2]);
+      }
+
+      System.out.printf("failover timestamps:%,d max gap in issuance:%,d ms (started %,d ms after kill)%n", samples.length, maxGap / 1000000,
+          (gapStart - killTime) / 1000000);
+    } finally {
+      standby.stop();
+    }
+  }
+
+  private static class ServerTimestampFetcher implements Runnable {
+    private OracleServer server;
+    private String id;
+    private long[] output;
+    private int offset;
+    private int numToGet;
+    private CountDownLatch startLatch;
+    private CountDownLatch cdl;
+
+    ServerTimestampFetcher(OracleServer server, String id, long[] output, int offset, int numToGet, CountDownLatch startLatch, CountDownLatch cdl) {
+      this.server = server;
+      this.id = id;
+      this.output = output;
+      this.offset = offset;
+      this.numToGet = numToGet;
+      this.startLatch = startLatch;
+      this.cdl = cdl;
+    }
+
+    @Override
+    public void run() {
+      try {
+        startLatch.await();
+        for (int i = 0; i < numToGet; i++) {
+          output[offset + i] = server.getTimestamps(id, 1);
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+      } finally {
+        cdl.countDown();
+      }
+    }
+  }
+
+  @Test
+  public void testThroughput() throws Exception {
+    // measures how fast the oracle can issue timestamps to concurrent callers, bypassing thrift
+    int numToGet = 200000;
+
+    for (int numThreads : new int[] {1, 8, 64}) {
+      long[] output = new long[numToGet];
+      int perThread = numToGet / numThreads;
+
+      ExecutorService tpool = Executors.newFixedThreadPool(numThreads);
+      CountDownLatch startLatch = new CountDownLatch(1);
+      CountDownLatch cdl = new CountDownLatch(numThreads);
+
+      for (int i = 0; i < numThreads; i++) {
+        tpool.execute(new ServerTimestampFetcher(oserver, config.getAccismusInstanceID(), output, i * perThread, perThread, startLatch, cdl));
+      }
+
+      long t1 = System.nanoTime();
+      startLatch.countDown();
+      cdl.await();
+      long t2 = System.nanoTime();
+
+      tpool.shutdown();
+      tpool.awaitTermination(1, TimeUnit.MINUTES);
+
+      int total = perThread * numThreads;
+      long[] sorted = Arrays.copyOf(output, total);
+      Arrays.sort(sorted);
+      for (int i = 1; i < sorted.length; i++) {
+        Assert.assertTrue(sorted[i - 1] < sorted[i]);
+      }
+
+      System.out.printf("threads : %3d  timestamps/sec : %,12.2f  block size : %,d  allocations : %,d  allocation wait : %,dms\n", numThreads,
+          total / ((t2 - t1) / 1000000000.0), oserver.getBlockSize(), oserver.getAllocations(), oserver.getAllocationWaitTime());
+    }
+  }
+
+  @Test
+  public void testAllocationFailure() throws Exception {
+    String id = config.getAccismusInstanceID();
+    String tsPath = config.getZookeeperRoot() + Constants.Zookeeper.TIMESTAMP;
+
+    long last = oserver.getTimestamps(id, 1);
+
+    // make the timestamp ceiling read only, so the oracle can not extend its block
+    zk.setACL(tsPath, Collections.singletonList(new ACL(ZooDefs.Perms.READ | ZooDefs.Perms.ADMIN, ZooDefs.Ids.ANYONE_ID_UNSAFE)), -1);
+
+    boolean failed = false;
+    try {
+      for (int i = 0; i < 10000 && !failed; i++) {
+        try {
+          long ts = oserver.getTimestamps(id, 1000);
+          Assert.assertTrue(ts > last);
+          last = ts;
+        } catch (TException e) {
+          failed = true;
+        }
+      }
+    } finally {
+      zk.setACL(tsPath, ZooDefs.Ids.OPEN_ACL_UNSAFE, -1);
+    }
+
+    Assert.assertTrue(failed);
+    Assert.assertTrue(oserver.isLeader());
+
+    // the allocator keeps retrying, so once zookeeper can be written the same leader issues timestamps again
+    long ts = -1;
+    for (int i = 0; i < 200 && ts == -1; i++) {
+      try {
+        ts = oserver.getTimestamps(id, 1);
+      } catch (TException e) {
+        Thread.sleep(100);
+      }
+    }
+
+    Assert.assertTrue(ts > last);
+    Assert.assertTrue(oserver.isLeader());
+  }
 }
@@ -89,6 +89,11 @@ public class StochasticBankTestIT extends Base {
     }
     
     System.out.println("txCount : " + txCount.get());
+    System.out.println("commit stats : " + tconfig.getCommitStats());
+    System.out.printf("commit latency ms p50 : %,.2f  p90 : %,.2f  p99 : %,.2f\n", tconfig.getCommitStats().getCommitTimes().getPercentile(50) / 1000.0, tconfig
+        .getCommitStats().getCommitTimes().getPercentile(90) / 1000.0, tconfig.getCommitStats().getCommitTimes().getPercentile(99) / 1000.0);
+    if (tconfig != config)
+      tconfig.close();
     
     runVerifier(config, numAccounts, 1);
   }
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.accismus.impl.iterators;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.accumulo.accismus.impl.ColumnUtil;
+import org.apache.accumulo.accismus.impl.DelLockValue;
+import org.apache.accumulo.accismus.impl.WriteValue;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.SortedMapIterator;
+import org.apache.accumulo.core.iterators.WrappingIterator;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class SnapshotIteratorTest {
+
+  private static class CountingIterator extends WrappingIterator {
+    int nexts = 0;
+    int seeks = 0;
+
+    CountingIterator(SortedKeyValueIterator<Key,Value> source) {
+      setSource(source);
+    }
+
+    public void next() throws IOException {
+      nexts++;
+      super.next();
+    }
+
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+      seeks++;
+      super.seek(range, columnFamilies, inclusive);
+    }
+  }
+
+  private static void put(TreeMap<Key,Value> data, String row, String qual, long ts, byte[] val) {
+    data.put(new Key(row, "f", qual, "", ts), new Value(val));
+  }
+
+  // writes versions committed at startTs + 1 for start times 10, 20, 30 ... Committed transactions leave their locks behind.
+  private static void putVersions(TreeMap<Key,Value> data, String row, int versions) {
+    for (int i = 1; i <= versions; i++) {
+      long startTs = i * 10;
+      put(data, row, "q", ColumnUtil.LOCK_PREFIX | startTs, new byte[0]);
+      put(data, row, "q", ColumnUtil.DATA_PREFIX | startTs, (row + "-" + startTs).getBytes());
+      put(data, row, "q", ColumnUtil.WRITE_PREFIX | (startTs + 1), WriteValue.encode(startTs, false, false));
+    }
+  }
+
+  private static Map<String,String> scan(CountingIterator source, long snaptime, boolean readCommitted) throws IOException {
+    IteratorSetting is = new IteratorSetting(10, SnapshotIterator.class);
+    SnapshotIterator.setSnaptime(is, snaptime);
+    SnapshotIterator.setReadCommitted(is, readCommitted);
+
+    SnapshotIterator si = new SnapshotIterator();
+    si.init(source, is.getOptions(), (IteratorEnvironment) null);
+    si.seek(new Range(), Collections.<ByteSequence> emptySet(), false);
+
+    Map<String,String> results = new HashMap<String,String>();
+    while (si.hasTop()) {
+      String row = si.getTopKey().getRowData().toString();
+      if ((si.getTopKey().getTimestamp() & ColumnUtil.PREFIX_MASK) == ColumnUtil.LOCK_PREFIX) {
+        results.put(row, "locked");
+      } else {
+        Assert.assertEquals(ColumnUtil.DATA_PREFIX, si.getTopKey().getTimestamp() & ColumnUtil.PREFIX_MASK);
+        results.put(row, new String(si.getTopValue().get()));
+      }
+      si.next();
+    }
+
+    return results;
+  }
+
+  private static TreeMap<Key,Value> history(int versions) {
+    TreeMap<Key,Value> data = new TreeMap<Key,Value>();
+    putVersions(data, "r1", 1);
+    putVersions(data, "r2", 100);
+    putVersions(data, "r3", versions);
+    return data;
+  }
+
+  @Test
+  public void testDeepHistory() throws Exception {
+    TreeMap<Key,Value> data = history(10000);
+
+    CountingIterator source = new CountingIterator(new SortedMapIterator(data));
+    Map<String,String> results = scan(source, Long.MAX_VALUE >> 3, false);
+
+    Assert.assertEquals(3, results.size());
+    Assert.assertEquals("r1-10", results.get("r1"));
+    Assert.assertEquals("r2-1000", results.get("r2"));
+    Assert.assertEquals("r3-100000", results.get("r3"));
+
+    // the writes, locks and data older than the visible version are seeked past instead of read
+    Assert.assertTrue("read " + source.nexts + " entries", source.nexts <= 3 * 3 * SnapshotIterator.SKIP_LIMIT);
+    Assert.assertTrue("seeked " + source.seeks + " times", source.seeks <= 1 + 3 * 3);
+
+    // reading the newest version costs the same no matter how much history a column has
+    CountingIterator shallow = new CountingIterator(new SortedMapIterator(history(100)));
+    scan(shallow, Long.MAX_VALUE >> 3, false);
+    Assert.assertEquals(shallow.nexts, source.nexts);
+    Assert.assertEquals(shallow.seeks, source.seeks);
+
+    // a snapshot in the middle of the history only reads the writes committed after it
+    source = new CountingIterator(new SortedMapIterator(data));
+    results = scan(source, 99985, false);
+    Assert.assertEquals("r1-10", results.get("r1"));
+    Assert.assertEquals("r2-1000", results.get("r2"));
+    Assert.assertEquals("r3-99980", results.get("r3"));
+    Assert.assertTrue("read " + source.nexts + " entries", source.nexts <= 2 + 3 * 3 * SnapshotIterator.SKIP_LIMIT);
+
+    source = new CountingIterator(new SortedMapIterator(data));
+    results = scan(source, 505, false);
+    Assert.assertEquals("r1-10", results.get("r1"));
+    Assert.assertEquals("r2-500", results.get("r2"));
+    Assert.assertEquals("r3-500", results.get("r3"));
+
+    // snapshot before anything was written
+    source = new CountingIterator(new SortedMapIterator(data));
+    results = scan(source, 5, false);
+    Assert.assertEquals(0, results.size());
+  }
+
+  @Test
+  public void testLockAndAcks() throws Exception {
+    TreeMap<Key,Value> data = new TreeMap<Key,Value>();
+    putVersions(data, "r1", 100);
+    putVersions(data, "r2", 100);
+    for (int i = 1; i <= 100; i++)
+      put(data, "r2", "q", ColumnUtil.ACK_PREFIX | (i * 10 + 5), new byte[0]);
+    put(data, "r1", "q", ColumnUtil.LOCK_PREFIX | 2000, new byte[0]);
+
+    // a rolled back lock
+    putVersions(data, "r3", 100);
+    put(data, "r3", "q", ColumnUtil.LOCK_PREFIX | 2000, new byte[0]);
+    put(data, "r3", "q", ColumnUtil.DEL_LOCK_PREFIX | 2000, DelLockValue.encode(2000, false, true));
+
+    // a lock of a transaction that committed after the snapshot
+    putVersions(data, "r4", 100);
+    put(data, "r4", "q", ColumnUtil.LOCK_PREFIX | 2000, new byte[0]);
+    put(data, "r4", "q", ColumnUtil.DATA_PREFIX | 2000, "r4-2000".getBytes());
+    put(data, "r4", "q", ColumnUtil.WRITE_PREFIX | 4000, WriteValue.encode(2000, false, false));
+
+    // a lock superseded by a write older than the visible write
+    putVersions(data, "r5", 100);
+    put(data, "r5", "q", ColumnUtil.LOCK_PREFIX | 1500, new byte[0]);
+    put(data, "r5", "q", ColumnUtil.DATA_PREFIX | 1500, "r5-1500".getBytes());
+    put(data, "r5", "q", ColumnUtil.WRITE_PREFIX | 1600, WriteValue.encode(1500, false, false));
+    put(data, "r5", "q", ColumnUtil.DATA_PREFIX | 1400, "r5-1400".getBytes());
+    put(data, "r5", "q", ColumnUtil.WRITE_PREFIX | 1700, WriteValue.encode(1400, false, false));
+
+    // r1 is locked, so the iterator stops at the lock for the scanner to resolve
+    CountingIterator source = new CountingIterator(new SortedMapIterator(data));
+    Map<String,String> results = scan(source, 3000, false);
+    Assert.assertEquals(5, results.size());
+    Assert.assertEquals("locked", results.get("r1"));
+    Assert.assertEquals("r2-1000", results.get("r2"));
+    Assert.assertEquals("r3-1000", results.get("r3"));
+    Assert.assertEquals("r4-1000", results.get("r4"));
+    Assert.assertEquals("r5-1400", results.get("r5"));
+    Assert.assertTrue("read " + source.nexts + " entries", source.nexts <= 5 * 4 * SnapshotIterator.SKIP_LIMIT);
+
+    source = new CountingIterator(new SortedMapIterator(data));
+    results = scan(source, 3000, true);
+    Assert.assertEquals(5, results.size());
+    Assert.assertEquals("r1-1000", results.get("r1"));
+    Assert.assertEquals("r2-1000", results.get("r2"));
+
+    // acks are seeked past along with the locks and data
+    Assert.assertTrue("read " + source.nexts + " entries", source.nexts <= 5 * 3 * SnapshotIterator.SKIP_LIMIT);
+  }
+}